@@ -0,0 +1,39 @@
+package quanto.bench;
+
+/**
+ * Something to time.
+ *
+ * setUp() is called once for each problem size, and is not timed; run()
+ * is then called repeatedly, and the average time per call is reported.
+ */
+public abstract class Benchmark {
+
+    private final String name;
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the input for one problem size.
+     */
+    public abstract void setUp(SyntheticGraphs data, int size) throws Exception;
+
+    /**
+     * Does one operation.
+     *
+     * @return something derived from the work, so that it cannot be
+     *         optimised away
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Releases anything created by setUp().
+     */
+    public void tearDown() {
+    }
+}
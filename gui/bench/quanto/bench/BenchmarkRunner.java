@@ -0,0 +1,198 @@
+package quanto.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks and prints the average time per operation.
+ *
+ * Like JMH, each benchmark is run for a number of warm-up iterations,
+ * whose results are thrown away, and then for a number of measured
+ * iterations of a fixed length.  The score is the mean time per
+ * operation over the measured iterations, and the error is the standard
+ * deviation between them.  Everything runs in one JVM, so run a single
+ * benchmark (by giving a pattern) for the most reliable numbers.
+ *
+ * Usage: BenchmarkRunner [options] [pattern...]
+ */
+public class BenchmarkRunner {
+
+    // results are folded into this so that they cannot be optimised away
+    private static volatile int sink;
+    private int warmupIterations = 5;
+    private int iterations = 10;
+    private long iterationMillis = 1000;
+
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public void setIterationMillis(long iterationMillis) {
+        this.iterationMillis = iterationMillis;
+    }
+
+    public static List<Benchmark> allBenchmarks(File protocolRecording) {
+        List<Benchmark> all = new ArrayList<Benchmark>();
+        all.add(new ProtocolReaderBenchmark(protocolRecording));
+        all.add(new GraphXmlBenchmark());
+        all.add(new RewriteListXmlBenchmark());
+        all.add(new ForceLayoutBenchmark(false));
+        all.add(new ForceLayoutBenchmark(true));
+        all.add(new ForceLayoutBenchmark(false, true));
+        all.add(new ForceLayoutBenchmark(true, true));
+        all.add(new RewriteLayoutBenchmark(false));
+        all.add(new RewriteLayoutBenchmark(true));
+        all.add(new RenderBenchmark());
+        all.add(new PdfExportBenchmark());
+        all.add(new GraphMutationBenchmark());
+        return all;
+    }
+
+    /**
+     * @return the nanoseconds per operation of one iteration
+     */
+    private double iteration(Benchmark benchmark) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1000000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            Object result = benchmark.run();
+            sink += System.identityHashCode(result);
+            ++ops;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    /**
+     * @return the mean and standard deviation of the time per operation,
+     *         in nanoseconds
+     */
+    public double[] measure(Benchmark benchmark, SyntheticGraphs data, int size)
+            throws Exception {
+        benchmark.setUp(data, size);
+        try {
+            for (int i = 0; i < warmupIterations; ++i) {
+                iteration(benchmark);
+            }
+            double[] times = new double[iterations];
+            double sum = 0;
+            for (int i = 0; i < iterations; ++i) {
+                times[i] = iteration(benchmark);
+                sum += times[i];
+            }
+            double mean = sum / iterations;
+            double squares = 0;
+            for (double t : times) {
+                squares += (t - mean) * (t - mean);
+            }
+            double deviation = iterations > 1 ? Math.sqrt(squares / (iterations - 1)) : 0;
+            return new double[]{mean, deviation};
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BenchmarkRunner [options] [pattern...]");
+        System.err.println();
+        System.err.println("Runs the benchmarks whose names match any of the regular expressions.");
+        System.err.println();
+        System.err.println("Options:");
+        System.err.println("  --list                 list the benchmarks");
+        System.err.println("  --sizes N,N,...        numbers of vertices (default: 100,1000)");
+        System.err.println("  --warmup N             warm-up iterations (default: 5)");
+        System.err.println("  --iterations N         measured iterations (default: 10)");
+        System.err.println("  --time MS              length of each iteration (default: 1000)");
+        System.err.println("  --seed N               seed for the random graphs (default: 1)");
+        System.err.println("  --theory FILE          theory for the vertex types");
+        System.err.println("                         (default: ../theory-visualizations/red-green-theory.qth)");
+        System.err.println("  --protocol-trace FILE  parse this recording of the core's output,");
+        System.err.println("                         rather than a synthetic one");
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String theory = ".." + File.separator + "theory-visualizations"
+                + File.separator + "red-green-theory.qth";
+        File recording = null;
+        long seed = 1;
+        int[] sizes = {100, 1000};
+        boolean listOnly = false;
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                String arg = args[i];
+                if (arg.equals("--list")) {
+                    listOnly = true;
+                } else if (arg.equals("--sizes") && i + 1 < args.length) {
+                    String[] parts = args[++i].split(",");
+                    sizes = new int[parts.length];
+                    for (int k = 0; k < parts.length; ++k) {
+                        sizes[k] = Integer.parseInt(parts[k].trim());
+                    }
+                } else if (arg.equals("--warmup") && i + 1 < args.length) {
+                    runner.setWarmupIterations(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--iterations") && i + 1 < args.length) {
+                    runner.setIterations(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--time") && i + 1 < args.length) {
+                    runner.setIterationMillis(Long.parseLong(args[++i]));
+                } else if (arg.equals("--seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (arg.equals("--theory") && i + 1 < args.length) {
+                    theory = args[++i];
+                } else if (arg.equals("--protocol-trace") && i + 1 < args.length) {
+                    recording = new File(args[++i]);
+                } else if (arg.equals("--help")) {
+                    usage();
+                    return;
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option \"" + arg + "\"");
+                } else {
+                    patterns.add(Pattern.compile(arg));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(2);
+        }
+
+        List<Benchmark> selected = new ArrayList<Benchmark>();
+        for (Benchmark benchmark : allBenchmarks(recording)) {
+            boolean matches = patterns.isEmpty();
+            for (Pattern pattern : patterns) {
+                matches |= pattern.matcher(benchmark.getName()).find();
+            }
+            if (matches) {
+                selected.add(benchmark);
+            }
+        }
+        if (listOnly) {
+            for (Benchmark benchmark : selected) {
+                System.out.println(benchmark.getName());
+            }
+            return;
+        }
+
+        SyntheticGraphs data = new SyntheticGraphs(theory, seed);
+        System.out.println(String.format("%-28s %7s %14s   %12s  %s",
+                "Benchmark", "Size", "Score", "Error", "Units"));
+        for (Benchmark benchmark : selected) {
+            for (int size : sizes) {
+                double[] result = runner.measure(benchmark, data, size);
+                System.out.println(String.format("%-28s %7d %14.3f +- %12.3f  us/op",
+                        benchmark.getName(), size, result[0] / 1000.0, result[1] / 1000.0));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package quanto.bench;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+import org.apache.commons.collections15.Transformer;
+import quanto.core.data.CoreGraph;
+import quanto.core.data.Vertex;
+import quanto.gui.QuantoForceLayout;
+
+/**
+ * QuantoForceLayout, either relaxing a randomly placed graph until it
+ * settles (reset()) or doing a single step(), on one thread or on
+ * several.
+ */
+public class ForceLayoutBenchmark extends Benchmark {
+
+    // a graph this small should settle in far fewer steps than the limit
+    private static final int SMALL_GRAPH = 100;
+    private static final int SMALL_GRAPH_STEPS = 1000;
+
+    private final boolean singleStep;
+    private final boolean parallel;
+    private CoreGraph graph;
+    private QuantoForceLayout layout;
+
+    /**
+     * @param singleStep  whether to time step() rather than reset()
+     */
+    public ForceLayoutBenchmark(boolean singleStep) {
+        this(singleStep, false);
+    }
+
+    /**
+     * @param singleStep  whether to time step() rather than reset()
+     * @param parallel  whether to use the multi-threaded layout
+     */
+    public ForceLayoutBenchmark(boolean singleStep, boolean parallel) {
+        super((singleStep ? "layout.force.step" : "layout.force.reset")
+                + (parallel ? ".parallel" : ""));
+        this.singleStep = singleStep;
+        this.parallel = parallel;
+    }
+
+    private QuantoForceLayout createLayout() {
+        final Random random = new Random(graph.getVertexCount());
+        final double side = 40.0 * Math.sqrt(graph.getVertexCount());
+        QuantoForceLayout result = new QuantoForceLayout(graph,
+                new Transformer<Vertex, Point2D>() {
+
+                    public Point2D transform(Vertex v) {
+                        return new Point2D.Double(random.nextDouble() * side,
+                                random.nextDouble() * side);
+                    }
+                }, 20.0) {
+                };
+        result.setParallel(parallel);
+        result.startModify();
+        return result;
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        graph = data.graph(size);
+        layout = createLayout();
+    }
+
+    @Override
+    public Object run() {
+        if (singleStep) {
+            layout.step();
+            return layout;
+        } else {
+            QuantoForceLayout fresh = createLayout();
+            fresh.reset();
+            if (graph.getVertexCount() <= SMALL_GRAPH
+                    && fresh.getStepCount() > SMALL_GRAPH_STEPS) {
+                throw new IllegalStateException("The layout of "
+                        + graph.getVertexCount() + " vertices took "
+                        + fresh.getStepCount() + " steps to settle");
+            }
+            return fresh;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package quanto.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import quanto.core.data.BangBox;
+import quanto.core.data.CoreGraph;
+import quanto.core.data.Edge;
+import quanto.core.data.Vertex;
+
+/**
+ * Building a graph, with its !-boxes, then removing half of its vertices,
+ * as applying a graph diff does.
+ */
+public class GraphMutationBenchmark extends Benchmark {
+
+    private List<Vertex> vertices;
+    private List<Edge> edges;
+    private List<Vertex> sources;
+    private List<Vertex> targets;
+    private List<BangBox> bangBoxes;
+    private List<Collection<Vertex>> contents;
+
+    public GraphMutationBenchmark() {
+        super("graph.mutate");
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        CoreGraph graph = data.graph(size);
+        vertices = new ArrayList<Vertex>(graph.getVertices());
+        edges = new ArrayList<Edge>(graph.getEdges());
+        sources = new ArrayList<Vertex>(edges.size());
+        targets = new ArrayList<Vertex>(edges.size());
+        for (Edge e : edges) {
+            sources.add(graph.getSource(e));
+            targets.add(graph.getDest(e));
+        }
+        bangBoxes = new ArrayList<BangBox>(graph.getBangBoxes());
+        contents = new ArrayList<Collection<Vertex>>(bangBoxes.size());
+        for (BangBox b : bangBoxes) {
+            contents.add(new ArrayList<Vertex>(graph.getBoxedVertices(b)));
+        }
+    }
+
+    @Override
+    public Object run() {
+        CoreGraph graph = new CoreGraph("g");
+        for (Vertex v : vertices) {
+            graph.addVertex(v);
+        }
+        for (int i = 0; i < bangBoxes.size(); ++i) {
+            graph.addBangBox(bangBoxes.get(i), contents.get(i));
+        }
+        for (int i = 0; i < edges.size(); ++i) {
+            graph.addEdge(edges.get(i), sources.get(i), targets.get(i));
+        }
+        for (int i = 0; i < vertices.size(); i += 2) {
+            graph.removeVertex(vertices.get(i));
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,28 @@
+package quanto.bench;
+
+import quanto.core.xml.GraphFragmentHandler;
+
+/**
+ * Parsing a graph from the core's XML with GraphFragmentHandler.
+ */
+public class GraphXmlBenchmark extends Benchmark {
+
+    private SyntheticGraphs data;
+    private String xml;
+
+    public GraphXmlBenchmark() {
+        super("xml.graph");
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) {
+        this.data = data;
+        this.xml = data.graphXml(size);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        return SyntheticGraphs.parse(xml,
+                new GraphFragmentHandler(data.getTheory(), "g"));
+    }
+}
@@ -0,0 +1,54 @@
+package quanto.bench;
+
+import java.io.OutputStream;
+import quanto.core.data.CoreGraph;
+import quanto.gui.PdfGraphVisualizationServer;
+import quanto.gui.QuantoDotLayout;
+
+/**
+ * Exporting a laid-out graph as a PDF document, discarding the output.
+ */
+public class PdfExportBenchmark extends Benchmark {
+
+    private PdfGraphVisualizationServer server;
+
+    /**
+     * Counts the bytes written to it, and throws them away
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public PdfExportBenchmark() {
+        super("render.pdf");
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        CoreGraph graph = data.graph(size);
+        server = new PdfGraphVisualizationServer(data.getTheory(), new QuantoDotLayout(graph));
+    }
+
+    @Override
+    public Object run() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        server.renderToPdf(out);
+        return Long.valueOf(out.count);
+    }
+
+    @Override
+    public void tearDown() {
+        server = null;
+    }
+}
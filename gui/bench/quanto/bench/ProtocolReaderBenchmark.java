@@ -0,0 +1,90 @@
+package quanto.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import quanto.core.protocol.ProtocolException;
+import quanto.core.protocol.ProtocolReader;
+import quanto.core.protocol.Response;
+
+/**
+ * ProtocolReader.parseNextResponse(), reading a whole stream of
+ * responses.
+ *
+ * The stream is either synthetic (see SyntheticGraphs.responseStream())
+ * or a recording of the core's output, starting with its version message.
+ * The size is ignored for recordings.
+ */
+public class ProtocolReaderBenchmark extends Benchmark {
+
+    private static final int RESPONSES = 1000;
+    private final File recording;
+    private byte[] stream;
+    private int responses;
+
+    /**
+     * @param recording  the core's output to parse, or null for a
+     *                   synthetic stream
+     */
+    public ProtocolReaderBenchmark(File recording) {
+        super("protocol.parseNextResponse");
+        this.recording = recording;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int filled = 0;
+            while (filled < data.length) {
+                int read = in.read(data, filled, data.length - filled);
+                if (read == -1) {
+                    break;
+                }
+                filled += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws IOException {
+        if (recording == null) {
+            stream = data.responseStream(size, RESPONSES);
+            responses = RESPONSES;
+            return;
+        }
+        // count the complete responses, so run() never reads past them
+        stream = readFile(recording);
+        ProtocolReader reader = new ProtocolReader(new ByteArrayInputStream(stream));
+        responses = 0;
+        try {
+            while (true) {
+                reader.parseNextResponse();
+                ++responses;
+            }
+        } catch (IOException ex) {
+            // the end of the recording
+        } catch (ProtocolException ex) {
+            // the end of the recording, or a truncated response
+        }
+        if (responses == 0) {
+            throw new IOException("The recording does not contain any responses");
+        }
+    }
+
+    @Override
+    public Object run() throws IOException, ProtocolException {
+        ProtocolReader reader = new ProtocolReader(new ByteArrayInputStream(stream));
+        int count = 0;
+        for (int i = 0; i < responses; ++i) {
+            Response response = reader.parseNextResponse();
+            count += response.getRequestId().length();
+        }
+        return count;
+    }
+}
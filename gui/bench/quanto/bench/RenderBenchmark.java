@@ -0,0 +1,62 @@
+package quanto.bench;
+
+import edu.uci.ics.jung.visualization.transform.shape.GraphicsDecorator;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import javax.swing.JComponent;
+import quanto.core.data.CoreGraph;
+import quanto.gui.PdfGraphVisualizationServer;
+import quanto.gui.QuantoDotLayout;
+
+/**
+ * The renderer drawing a laid-out graph into an offscreen image, with the
+ * same renderers and transformers as PDF export.
+ */
+public class RenderBenchmark extends Benchmark {
+
+    private PdfGraphVisualizationServer server;
+    private BufferedImage image;
+
+    public RenderBenchmark() {
+        super("render.offscreen");
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        CoreGraph graph = data.graph(size);
+        server = new PdfGraphVisualizationServer(data.getTheory(), new QuantoDotLayout(graph));
+        Rectangle2D bounds = server.getGraphBounds();
+        final int width = (int) bounds.getMaxX() + 20;
+        final int height = (int) bounds.getMaxY() + 20;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        server.getRenderContext().setScreenDevice(new JComponent() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Dimension getSize() {
+                return new Dimension(width, height);
+            }
+        });
+    }
+
+    @Override
+    public Object run() {
+        Graphics2D g = image.createGraphics();
+        try {
+            server.getRenderContext().setGraphicsContext(new GraphicsDecorator(g));
+            server.getRenderer().render(server.getRenderContext(), server.getGraphLayout());
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    @Override
+    public void tearDown() {
+        server = null;
+        image = null;
+    }
+}
@@ -0,0 +1,90 @@
+package quanto.bench;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.commons.collections15.Transformer;
+import quanto.core.data.CoreGraph;
+import quanto.core.data.Vertex;
+import quanto.gui.QuantoForceLayout;
+
+/**
+ * QuantoForceLayout placing a handful of new vertices in a graph whose
+ * other vertices are locked, as happens after a rewrite, either with an
+ * incremental layout or with a full reset().
+ */
+public class RewriteLayoutBenchmark extends Benchmark {
+
+    private static final int CHANGED = 8;
+    private final boolean incremental;
+    private QuantoForceLayout layout;
+    private List<Vertex> changed;
+    private Point2D origin;
+
+    /**
+     * @param incremental  whether to lay out only around the new vertices
+     */
+    public RewriteLayoutBenchmark(boolean incremental) {
+        super(incremental ? "layout.rewrite.incremental" : "layout.rewrite.full");
+        this.incremental = incremental;
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        CoreGraph graph = data.graph(size);
+        final Random random = new Random(size);
+        final double side = 40.0 * Math.sqrt(size);
+        layout = new QuantoForceLayout(graph,
+                new Transformer<Vertex, Point2D>() {
+
+                    public Point2D transform(Vertex v) {
+                        return new Point2D.Double(random.nextDouble() * side,
+                                random.nextDouble() * side);
+                    }
+                }, 20.0) {
+                };
+
+        // a connected patch of the graph stands in for the new vertices
+        changed = new ArrayList<Vertex>();
+        Set<Vertex> seen = new HashSet<Vertex>();
+        LinkedList<Vertex> queue = new LinkedList<Vertex>();
+        Vertex start = graph.getVertices().iterator().next();
+        queue.add(start);
+        seen.add(start);
+        while (!queue.isEmpty() && changed.size() < CHANGED) {
+            Vertex v = queue.removeFirst();
+            changed.add(v);
+            for (Vertex u : graph.getNeighbors(v)) {
+                if (seen.add(u)) {
+                    queue.add(u);
+                }
+            }
+        }
+        for (Vertex v : graph.getVertices()) {
+            layout.lock(v, !changed.contains(v));
+        }
+        origin = layout.transform(start);
+    }
+
+    @Override
+    public Object run() {
+        for (int i = 0; i < changed.size(); ++i) {
+            layout.setLocation(changed.get(i), origin.getX(), origin.getY() + 20 * i);
+        }
+        layout.setChangedVertices(incremental ? changed : null);
+        layout.startModify();
+        layout.reset();
+        layout.endModify();
+        return layout;
+    }
+
+    @Override
+    public void tearDown() {
+        layout = null;
+        changed = null;
+    }
+}
@@ -0,0 +1,34 @@
+package quanto.bench;
+
+import quanto.core.data.CoreGraph;
+import quanto.core.xml.AttachedRewriteListFragmentHandler;
+
+/**
+ * Parsing a list of attached rewrites with
+ * AttachedRewriteListFragmentHandler; each rewrite carries a result graph
+ * of the benchmark's size.
+ */
+public class RewriteListXmlBenchmark extends Benchmark {
+
+    private static final int REWRITES = 10;
+    private SyntheticGraphs data;
+    private CoreGraph graph;
+    private String xml;
+
+    public RewriteListXmlBenchmark() {
+        super("xml.rewrites");
+    }
+
+    @Override
+    public void setUp(SyntheticGraphs data, int size) throws Exception {
+        this.data = data;
+        this.graph = data.graph(size);
+        this.xml = data.rewritesXml(size, REWRITES);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        return SyntheticGraphs.parse(xml,
+                new AttachedRewriteListFragmentHandler(data.getTheory(), graph));
+    }
+}
@@ -0,0 +1,260 @@
+package quanto.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+import quanto.core.Theory;
+import quanto.core.data.CoreGraph;
+import quanto.core.data.VertexType;
+import quanto.core.xml.FragmentHandler;
+import quanto.core.xml.GraphFragmentHandler;
+import quanto.core.xml.SAXFragmentAdaptor;
+import quanto.core.xml.TheoryParser;
+
+/**
+ * Makes random graphs, and the XML and protocol messages the core would
+ * send for them.
+ *
+ * Graphs of n vertices have about n/10 boundary vertices, 1.5n edges and
+ * a !-box for every 50 vertices.  The same seed always gives the same
+ * graphs.
+ */
+public class SyntheticGraphs {
+
+    private static final char ESC = '\u001b';
+
+    private final List<VertexType> types;
+    private final Theory theory;
+    private final long seed;
+
+    public SyntheticGraphs(String theoryFile, long seed) throws SAXException, IOException {
+        TheoryParser parser = new TheoryParser(theoryFile);
+        this.types = new ArrayList<VertexType>(parser.getTheoryVertices());
+        final Map<String, VertexType> byName = new HashMap<String, VertexType>();
+        for (VertexType type : types) {
+            byName.put(type.getTypeName(), type);
+        }
+        this.theory = new Theory() {
+
+            public VertexType getVertexType(String typeName) {
+                return byName.get(typeName);
+            }
+
+            public VertexType getVertexTypeByMnemonic(String mnemonic) {
+                for (VertexType type : types) {
+                    if (type.getMnemonic().equals(mnemonic)) {
+                        return type;
+                    }
+                }
+                return null;
+            }
+
+            public Collection<VertexType> getVertexTypes() {
+                return types;
+            }
+        };
+        this.seed = seed;
+    }
+
+    public Theory getTheory() {
+        return theory;
+    }
+
+    private static void appendVertex(StringBuilder xml, String name, VertexType type) {
+        xml.append("<vertex name=\"").append(name).append("\"><type>");
+        if (type == null) {
+            xml.append("edge-point</type><data/>");
+        } else {
+            xml.append(type.getTypeName()).append("</type>");
+            if (type.hasData()) {
+                xml.append("<data><angleexpr><string_of>0</string_of></angleexpr></data>");
+            } else {
+                xml.append("<data/>");
+            }
+        }
+        xml.append("</vertex>");
+    }
+
+    /**
+     * The core's XML for a random graph with the given number of vertices.
+     */
+    public String graphXml(int vertices) {
+        Random random = new Random(seed + vertices);
+        StringBuilder xml = new StringBuilder(vertices * 200);
+        xml.append("<graph>");
+        for (int i = 0; i < vertices; ++i) {
+            VertexType type = (i % 10 == 9) ? null : types.get(random.nextInt(types.size()));
+            appendVertex(xml, "v" + i, type);
+        }
+        int edges = 0;
+        for (int i = 1; i < vertices; ++i) {
+            // a spanning tree, plus some extra edges
+            int count = random.nextInt(2) + 1;
+            for (int k = 0; k < count; ++k) {
+                int j = random.nextInt(i);
+                xml.append("<edge name=\"e").append(edges++)
+                        .append("\" dir=\"false\" source=\"v").append(j)
+                        .append("\" target=\"v").append(i)
+                        .append("\"><type>unit</type><data/></edge>");
+            }
+        }
+        for (int b = 0; b + 3 <= vertices; b += 50) {
+            xml.append("<bangbox name=\"B").append(b).append("\">");
+            for (int i = b; i < b + 3; ++i) {
+                xml.append("<vertex>v").append(i).append("</vertex>");
+            }
+            xml.append("</bangbox>");
+        }
+        xml.append("</graph>");
+        return xml.toString();
+    }
+
+    /**
+     * The core's XML for a list of attached rewrites, each with a small
+     * rule and a result graph of the given size.
+     */
+    public String rewritesXml(int vertices, int rewrites) {
+        String lhs = graphXml(3);
+        String rhs = graphXml(2);
+        String result = graphXml(vertices);
+        StringBuilder xml = new StringBuilder(rewrites * (result.length() + lhs.length() + rhs.length() + 200));
+        xml.append("<rewrites>");
+        for (int i = 0; i < rewrites; ++i) {
+            xml.append("<rewrite><rule><name>rule").append(i).append("</name><definition><lhs>")
+                    .append(lhs).append("</lhs><rhs>").append(rhs)
+                    .append("</rhs></definition></rule><newgraph>")
+                    .append(result).append("</newgraph></rewrite>");
+        }
+        xml.append("</rewrites>");
+        return xml.toString();
+    }
+
+    /**
+     * A random graph with the given number of vertices, built the same
+     * way as one loaded from the core.
+     */
+    public CoreGraph graph(int vertices) throws SAXException, IOException {
+        return parse(graphXml(vertices), new GraphFragmentHandler(theory, "g" + vertices));
+    }
+
+    public static <T> T parse(String xml, FragmentHandler<? extends T> handler)
+            throws SAXException, IOException {
+        InputSource source = new InputSource(new ByteArrayInputStream(utf8(xml)));
+        source.setEncoding("UTF-8");
+        XMLReader reader = XMLReaderFactory.createXMLReader();
+        SAXFragmentAdaptor<T> adaptor = new SAXFragmentAdaptor<T>(handler);
+        reader.setContentHandler(adaptor);
+        reader.parse(source);
+        return adaptor.getResult();
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private static void escaped(ByteArrayOutputStream out, String s) {
+        byte[] bytes = utf8(s);
+        for (byte b : bytes) {
+            out.write(b);
+            if (b == ESC) {
+                out.write(ESC);
+            }
+        }
+    }
+
+    private static void esc(ByteArrayOutputStream out, char c) {
+        out.write(ESC);
+        out.write(c);
+    }
+
+    private static void header(ByteArrayOutputStream out, String code, int id) {
+        esc(out, '<');
+        escaped(out, code);
+        esc(out, ':');
+        escaped(out, Integer.toString(id));
+        esc(out, '|');
+    }
+
+    private static void dataBlock(ByteArrayOutputStream out, byte[] data) {
+        esc(out, '[');
+        escaped(out, Integer.toString(data.length));
+        esc(out, '|');
+        out.write(data, 0, data.length);
+        esc(out, ']');
+    }
+
+    /**
+     * A stream of responses like the core sends when a graph of the given
+     * size is being edited: mostly names, name lists, counts and OKs,
+     * with a graph diff (as XML) every tenth response.
+     *
+     * The stream starts with the version message.
+     */
+    public byte[] responseStream(int vertices, int responses) {
+        Random random = new Random(seed);
+        byte[] graph = utf8(graphXml(vertices));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(graph.length * (responses / 10 + 1) + responses * 64);
+        esc(out, '<');
+        out.write('V');
+        esc(out, '|');
+        escaped(out, "2.0");
+        esc(out, '>');
+        for (int i = 0; i < responses; ++i) {
+            switch (i % 10) {
+                case 0:
+                    header(out, "X", i);
+                    dataBlock(out, graph);
+                    break;
+                case 1:
+                case 2:
+                case 3:
+                    header(out, "N", i);
+                    escaped(out, "v" + random.nextInt(vertices + 1));
+                    break;
+                case 4:
+                case 5: {
+                    header(out, "M", i);
+                    int count = random.nextInt(20);
+                    escaped(out, Integer.toString(count));
+                    esc(out, ':');
+                    for (int k = 0; k < count; ++k) {
+                        if (k > 0) {
+                            esc(out, ',');
+                        }
+                        escaped(out, "v" + random.nextInt(vertices + 1));
+                    }
+                    break;
+                }
+                case 6:
+                    header(out, "I", i);
+                    escaped(out, Integer.toString(random.nextInt(1000)));
+                    break;
+                case 7:
+                    header(out, "Q", i);
+                    escaped(out, "BADARGS");
+                    esc(out, ';');
+                    escaped(out, "No such vertex \u001b v" + vertices);
+                    break;
+                default:
+                    header(out, "O", i);
+            }
+            esc(out, '>');
+        }
+        return out.toByteArray();
+    }
+}
@@ -7,6 +7,7 @@ package edu.uci.ics.jung.contrib.algorithms.layout;
 
 import edu.uci.ics.jung.contrib.graph.DirectedBangBoxGraph;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  *
@@ -36,15 +37,30 @@ public abstract class AbstractDotBangBoxLayout<V, E, B> extends AbstractDotLayou
 			Collection<V> contents = getGraph().getBoxedVertices(b);
 			if (!contents.isEmpty()) {
 				g.append("subgraph \"cluster ");
-				g.append(i);
+				g.append(i++);
 				g.append("\" {\n");
-				for (V v : getGraph().getBoxedVertices(b)) {
+				for (V v : contents) {
 					g.append("\"");
 					g.append(getVertexDotKey(v));
 					g.append("\"; ");
 				}
+				g.append("\n}\n");
+			}
+		}
+	}
+
+	@Override
+	protected void addClusters(LayeredLayoutEngine engine, Map<V, Integer> nodes) {
+		for (B b : getGraph().getBangBoxes()) {
+			Collection<V> contents = getGraph().getBoxedVertices(b);
+			if (!contents.isEmpty()) {
+				int[] cluster = new int[contents.size()];
+				int i = 0;
+				for (V v : contents) {
+					cluster[i++] = nodes.get(v);
+				}
+				engine.addCluster(cluster);
 			}
-			g.append("\n}\n");
 		}
 	}
 
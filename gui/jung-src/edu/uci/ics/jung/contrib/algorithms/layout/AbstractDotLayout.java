@@ -16,7 +16,15 @@ public abstract class AbstractDotLayout<V,E> extends AbstractLayout<V, E> implem
 private final static Logger logger =
 Logger.getLogger("edu.uci.ics.jung.contrib.algorithms.layout");
 
+/**
+* The dot executable, used when useDotProgram is set.
+*/
 public static String dotProgram = "dot";
+/**
+* Whether to run dot to lay out graphs, rather than doing it in-process
+* with a LayeredLayoutEngine.
+*/
+public static boolean useDotProgram = false;
 public final static double DOT_SCALE = 50.0;
 
 protected Map<String,Point2D> vertexPositions = null;
@@ -95,8 +103,12 @@ if (!isWorkToDo()) return;
 vertexPositions = new HashMap<String, Point2D>();
 beginLayout();
 
+if (useDotProgram) {
 String viz = graphToDot();
 calculateNodePositions(viz);
+} else {
+calculateNodePositions();
+}
 adjustPositions();
 layoutGraph();
 
@@ -114,6 +126,38 @@ public void reset() {
 initialize();
 }
 
+/**
+* Lays out the graph in-process, with the same spacing dot would use.
+*/
+protected void calculateNodePositions() {
+LayeredLayoutEngine engine = new LayeredLayoutEngine(
+vertexSpacing, vertexSpacing, vertexSpacing/2.0);
+Map<V,Integer> nodes = new HashMap<V, Integer>();
+for (V v : graph.getVertices()) {
+nodes.put(v, engine.addNode(vertexWidth(v), vertexHeight(v)));
+}
+for (E e : graph.getEdges()) {
+engine.addEdge(nodes.get(graph.getSource(e)), nodes.get(graph.getDest(e)));
+}
+addClusters(engine, nodes);
+engine.layout();
+
+size.setSize(engine.getWidth() + 2*vertexSpacing, engine.getHeight() + 2*vertexSpacing);
+for (Map.Entry<V,Integer> node : nodes.entrySet()) {
+int n = node.getValue();
+vertexPositions.put(getVertexDotKey(node.getKey()), new Point2D.Double(
+engine.getX(n) + vertexSpacing,
+engine.getY(n) + vertexSpacing));
+}
+}
+
+/**
+* Tells the layout engine which vertices should be kept together.
+*
+* @param nodes the engine's node number for each vertex
+*/
+protected void addClusters(LayeredLayoutEngine engine, Map<V,Integer> nodes) {}
+
 protected void calculateNodePositions(String dot) throws IOException {
 Process dotProcess = Runtime.getRuntime().exec(dotProgram + " -Tplain");
 BufferedReader dotIn = new BufferedReader(new InputStreamReader(dotProcess
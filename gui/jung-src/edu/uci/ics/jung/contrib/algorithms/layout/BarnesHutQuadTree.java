@@ -0,0 +1,243 @@
+package edu.uci.ics.jung.contrib.algorithms.layout;
+
+/**
+ * A quadtree over a set of points, for approximating the repulsion
+ * between every pair of vertices in a force layout in O(n log n) time
+ * (the Barnes-Hut algorithm).
+ *
+ * The repulsion on p from q is strength * (p - q) / |p - q|^2.  Groups
+ * of points that are far enough away (relative to the size of the
+ * group) are treated as a single point at their centre of mass.
+ *
+ * The tree is stored in flat arrays, which are reused each time it is
+ * rebuilt.
+ */
+public class BarnesHutQuadTree {
+	private static final int NONE = -1;
+	// nodes smaller than this are not split any further
+	private static final double MIN_SIZE = 1e-3;
+
+	private double[] xs;
+	private double[] ys;
+	// the next point in the same leaf
+	private int[] next = new int[0];
+
+	private int nodeCount = 0;
+	// the top-left corner and the width (= height) of each node
+	private double[] left = new double[0];
+	private double[] top = new double[0];
+	private double[] size = new double[0];
+	// the number of points in a node, and the sum of their coordinates
+	private int[] mass = new int[0];
+	private double[] sumX = new double[0];
+	private double[] sumY = new double[0];
+	// the first of the four children, or NONE for a leaf
+	private int[] firstChild = new int[0];
+	// the first point in a leaf
+	private int[] head = new int[0];
+	private int[] stack = new int[0];
+
+	/**
+	 * Builds the tree for the first count points in xs and ys.
+	 *
+	 * The arrays are not copied, so must not be changed until the tree
+	 * is no longer needed.
+	 */
+	public void build(double[] xs, double[] ys, int count) {
+		this.xs = xs;
+		this.ys = ys;
+		if (next.length < count) {
+			next = new int[count];
+		}
+		nodeCount = 0;
+		if (count == 0) {
+			return;
+		}
+
+		double minX = xs[0], maxX = xs[0];
+		double minY = ys[0], maxY = ys[0];
+		for (int i = 1; i < count; ++i) {
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		int root = newNode(minX, minY, Math.max(maxX - minX, maxY - minY) + MIN_SIZE);
+		for (int i = 0; i < count; ++i) {
+			insert(root, i);
+		}
+	}
+
+	private void ensureCapacity(int nodes) {
+		if (nodes <= left.length) {
+			return;
+		}
+		int cap = Math.max(nodes, left.length * 2);
+		left = copyOf(left, cap);
+		top = copyOf(top, cap);
+		size = copyOf(size, cap);
+		mass = copyOf(mass, cap);
+		sumX = copyOf(sumX, cap);
+		sumY = copyOf(sumY, cap);
+		firstChild = copyOf(firstChild, cap);
+		head = copyOf(head, cap);
+		stack = copyOf(stack, cap);
+	}
+
+	private static double[] copyOf(double[] a, int length) {
+		double[] result = new double[length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+
+	private static int[] copyOf(int[] a, int length) {
+		int[] result = new int[length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+
+	private int newNode(double x, double y, double s) {
+		ensureCapacity(nodeCount + 1);
+		int n = nodeCount++;
+		left[n] = x;
+		top[n] = y;
+		size[n] = s;
+		mass[n] = 0;
+		sumX[n] = 0;
+		sumY[n] = 0;
+		firstChild[n] = NONE;
+		head[n] = NONE;
+		return n;
+	}
+
+	private int childFor(int n, double x, double y) {
+		double half = size[n] / 2;
+		int c = firstChild[n];
+		if (x >= left[n] + half) {
+			c += 1;
+		}
+		if (y >= top[n] + half) {
+			c += 2;
+		}
+		return c;
+	}
+
+	private void split(int n) {
+		double half = size[n] / 2;
+		double x = left[n];
+		double y = top[n];
+		// newNode may reallocate the arrays, so don't hold on to them
+		int c = newNode(x, y, half);
+		newNode(x + half, y, half);
+		newNode(x, y + half, half);
+		newNode(x + half, y + half, half);
+		firstChild[n] = c;
+	}
+
+	private void insert(int n, int p) {
+		double x = xs[p];
+		double y = ys[p];
+		while (true) {
+			mass[n]++;
+			sumX[n] += x;
+			sumY[n] += y;
+			if (firstChild[n] != NONE) {
+				n = childFor(n, x, y);
+			} else if (head[n] == NONE || size[n] < MIN_SIZE) {
+				next[p] = head[n];
+				head[n] = p;
+				return;
+			} else {
+				// a leaf with one point in it: push that point down
+				int q = head[n];
+				head[n] = NONE;
+				split(n);
+				int c = childFor(n, xs[q], ys[q]);
+				mass[c] = 1;
+				sumX[c] = xs[q];
+				sumY[c] = ys[q];
+				head[c] = q;
+				next[q] = NONE;
+				n = childFor(n, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Adds the repulsion on point i from all the other points to force.
+	 *
+	 * @param i  the point to compute the repulsion on
+	 * @param strength  the strength of the repulsion
+	 * @param theta  how far away (relative to its size) a group of points
+	 *               has to be to be approximated by its centre of mass;
+	 *               0 gives the exact answer
+	 * @param force  the x and y components of the force, to be added to
+	 */
+	public void addRepulsion(int i, double strength, double theta, double[] force) {
+		addRepulsion(i, strength, theta, force, stack);
+	}
+
+	/**
+	 * The length of the stack addRepulsion() needs.
+	 */
+	public int getStackSize() {
+		return stack.length;
+	}
+
+	/**
+	 * As addRepulsion(int, double, double, double[]), but using the
+	 * given scratch space, so that several threads can use the tree at
+	 * once.
+	 *
+	 * @param stack  an array at least getStackSize() long
+	 */
+	public void addRepulsion(int i, double strength, double theta, double[] force, int[] stack) {
+		if (nodeCount == 0) {
+			return;
+		}
+		double x = xs[i];
+		double y = ys[i];
+		double thetaSq = theta * theta;
+		double fx = 0;
+		double fy = 0;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int n = stack[--sp];
+			if (mass[n] == 0) {
+				continue;
+			}
+			if (firstChild[n] == NONE) {
+				for (int b = head[n]; b != NONE; b = next[b]) {
+					if (b != i) {
+						double dx = x - xs[b];
+						double dy = y - ys[b];
+						double distSq = dx * dx + dy * dy;
+						if (distSq > 0) {
+							fx += strength * dx / distSq;
+							fy += strength * dy / distSq;
+						}
+					}
+				}
+				continue;
+			}
+			double dx = x - sumX[n] / mass[n];
+			double dy = y - sumY[n] / mass[n];
+			double distSq = dx * dx + dy * dy;
+			boolean inside = x >= left[n] && x < left[n] + size[n]
+				&& y >= top[n] && y < top[n] + size[n];
+			if (!inside && size[n] * size[n] < thetaSq * distSq) {
+				fx += strength * mass[n] * dx / distSq;
+				fy += strength * mass[n] * dy / distSq;
+			} else {
+				int c = firstChild[n];
+				stack[sp++] = c;
+				stack[sp++] = c + 1;
+				stack[sp++] = c + 2;
+				stack[sp++] = c + 3;
+			}
+		}
+		force[0] += fx;
+		force[1] += fy;
+	}
+}
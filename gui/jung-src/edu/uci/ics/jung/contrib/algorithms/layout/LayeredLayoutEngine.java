@@ -0,0 +1,841 @@
+package edu.uci.ics.jung.contrib.algorithms.layout;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A layered graph layout (in the style of Sugiyama et al., and of dot).
+ *
+ * Edges point down the page where possible.  The layout is done in the
+ * usual stages: cycles are broken by reversing edges, nodes are assigned
+ * to ranks, long edges are split by dummy nodes, the order of the nodes
+ * in each rank is chosen to reduce edge crossings and, finally, nodes
+ * are given x coordinates close to those of their neighbours.
+ *
+ * Nodes can be grouped into (disjoint) clusters, which are kept together,
+ * and whose bounding boxes (plus a margin) contain no other nodes.
+ *
+ * Nodes are numbered from 0, in the order they are added.  Positions are
+ * the centres of the nodes, relative to the top-left corner of the
+ * bounding box of the layout.
+ */
+public class LayeredLayoutEngine {
+	private static final int NONE = -1;
+	private static final int ORDER_ITERATIONS = 24;
+	private static final int POSITION_ITERATIONS = 8;
+	private static final int MAX_CLUSTER_PASSES = 50;
+
+	private final double nodeSeparation;
+	private final double rankSeparation;
+	private final double clusterMargin;
+
+	// the graph, as given to us
+	private int realCount = 0;
+	private double[] widths = new double[16];
+	private double[] heights = new double[16];
+	private int[] clusterOf = new int[16];
+	private int clusterCount = 0;
+	private int edgeCount = 0;
+	private int[] edgeSources = new int[16];
+	private int[] edgeTargets = new int[16];
+
+	// the layout, over both real and dummy nodes
+	private int nodeCount;
+	private int[] rank;
+	private double[] nodeWidth;
+	private double[] nodeHeight;
+	private int[] nodeCluster;
+	private int[][] ups;
+	private int[][] downs;
+	private int[][] layers;
+	private int[] position;
+	private int[][] members;
+	private double[] clusterKey;
+	private double[] xs;
+	private double[] ys;
+	private double width;
+	private double height;
+
+	/**
+	 * @param nodeSeparation  the horizontal space between neighbouring nodes
+	 * @param rankSeparation  the vertical space between ranks
+	 * @param clusterMargin  the space between a cluster's bounding box and
+	 *                       its contents
+	 */
+	public LayeredLayoutEngine(double nodeSeparation, double rankSeparation,
+			double clusterMargin) {
+		this.nodeSeparation = nodeSeparation;
+		this.rankSeparation = rankSeparation;
+		this.clusterMargin = clusterMargin;
+	}
+
+	/**
+	 * Adds a node.
+	 *
+	 * @return the number of the new node
+	 */
+	public int addNode(double width, double height) {
+		if (realCount == widths.length) {
+			widths = Arrays.copyOf(widths, realCount * 2);
+			heights = Arrays.copyOf(heights, realCount * 2);
+			clusterOf = Arrays.copyOf(clusterOf, realCount * 2);
+		}
+		widths[realCount] = width;
+		heights[realCount] = height;
+		clusterOf[realCount] = NONE;
+		return realCount++;
+	}
+
+	/**
+	 * Adds an edge.  Self-loops are ignored.
+	 */
+	public void addEdge(int source, int target) {
+		if (edgeCount == edgeSources.length) {
+			edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+			edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+		}
+		edgeSources[edgeCount] = source;
+		edgeTargets[edgeCount] = target;
+		++edgeCount;
+	}
+
+	/**
+	 * Groups some nodes into a cluster.
+	 *
+	 * Clusters cannot overlap: any of the nodes that are already in a
+	 * cluster are left where they are.
+	 */
+	public void addCluster(int[] nodes) {
+		boolean used = false;
+		for (int n : nodes) {
+			if (clusterOf[n] == NONE) {
+				clusterOf[n] = clusterCount;
+				used = true;
+			}
+		}
+		if (used) {
+			++clusterCount;
+		}
+	}
+
+	public double getX(int node) {
+		return xs[node];
+	}
+
+	public double getY(int node) {
+		return ys[node];
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	public double getHeight() {
+		return height;
+	}
+
+	/**
+	 * Lays out the graph.
+	 */
+	public void layout() {
+		nodeCount = realCount;
+		if (realCount == 0) {
+			width = 0;
+			height = 0;
+			xs = new double[0];
+			ys = new double[0];
+			return;
+		}
+		boolean[] reversed = breakCycles();
+		assignRanks(reversed);
+		buildLayers(reversed);
+		orderLayers();
+		assignX();
+		separateClusters();
+		assignY();
+		normalise();
+	}
+
+	private boolean isLoop(int e) {
+		return edgeSources[e] == edgeTargets[e];
+	}
+
+	/*
+	 * Reverses the edges that go back up a depth-first search tree.
+	 */
+	private boolean[] breakCycles() {
+		int[] outCount = new int[realCount];
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				++outCount[edgeSources[e]];
+			}
+		}
+		int[][] out = new int[realCount][];
+		for (int v = 0; v < realCount; ++v) {
+			out[v] = new int[outCount[v]];
+			outCount[v] = 0;
+		}
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				int s = edgeSources[e];
+				out[s][outCount[s]++] = e;
+			}
+		}
+
+		boolean[] reversed = new boolean[edgeCount];
+		byte[] state = new byte[realCount]; // 0: new, 1: on stack, 2: done
+		int[] stack = new int[realCount];
+		int[] next = new int[realCount];
+		for (int root = 0; root < realCount; ++root) {
+			if (state[root] != 0) {
+				continue;
+			}
+			int sp = 0;
+			stack[sp++] = root;
+			state[root] = 1;
+			while (sp > 0) {
+				int v = stack[sp - 1];
+				if (next[v] < out[v].length) {
+					int e = out[v][next[v]++];
+					int w = edgeTargets[e];
+					if (state[w] == 1) {
+						reversed[e] = true;
+					} else if (state[w] == 0) {
+						state[w] = 1;
+						stack[sp++] = w;
+					}
+				} else {
+					state[v] = 2;
+					--sp;
+				}
+			}
+		}
+		return reversed;
+	}
+
+	private int from(int e, boolean[] reversed) {
+		return reversed[e] ? edgeTargets[e] : edgeSources[e];
+	}
+
+	private int to(int e, boolean[] reversed) {
+		return reversed[e] ? edgeSources[e] : edgeTargets[e];
+	}
+
+	/*
+	 * Puts each node one rank below its lowest predecessor, then pulls
+	 * nodes with no predecessors down to sit just above their successors.
+	 */
+	private void assignRanks(boolean[] reversed) {
+		int[] inCount = new int[realCount];
+		int[] outCount = new int[realCount];
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				++outCount[from(e, reversed)];
+				++inCount[to(e, reversed)];
+			}
+		}
+		int[][] succs = new int[realCount][];
+		for (int v = 0; v < realCount; ++v) {
+			succs[v] = new int[outCount[v]];
+		}
+		int[] fill = new int[realCount];
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				int s = from(e, reversed);
+				succs[s][fill[s]++] = to(e, reversed);
+			}
+		}
+
+		rank = new int[realCount];
+		int[] remaining = inCount.clone();
+		int[] topo = new int[realCount];
+		int head = 0;
+		int tail = 0;
+		for (int v = 0; v < realCount; ++v) {
+			if (remaining[v] == 0) {
+				topo[tail++] = v;
+			}
+		}
+		while (head < tail) {
+			int v = topo[head++];
+			for (int w : succs[v]) {
+				rank[w] = Math.max(rank[w], rank[v] + 1);
+				if (--remaining[w] == 0) {
+					topo[tail++] = w;
+				}
+			}
+		}
+
+		for (int i = realCount - 1; i >= 0; --i) {
+			int v = topo[i];
+			if (inCount[v] == 0 && succs[v].length > 0) {
+				int r = Integer.MAX_VALUE;
+				for (int w : succs[v]) {
+					r = Math.min(r, rank[w]);
+				}
+				rank[v] = r - 1;
+			}
+		}
+		int minRank = Integer.MAX_VALUE;
+		for (int v = 0; v < realCount; ++v) {
+			minRank = Math.min(minRank, rank[v]);
+		}
+		for (int v = 0; v < realCount; ++v) {
+			rank[v] -= minRank;
+		}
+	}
+
+	/*
+	 * Splits edges that span several ranks with dummy nodes, and puts
+	 * the nodes into layers in breadth-first order.
+	 */
+	private void buildLayers(boolean[] reversed) {
+		int segments = 0;
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				segments += rank[to(e, reversed)] - rank[from(e, reversed)];
+			}
+		}
+		int dummies = segments;
+		for (int e = 0; e < edgeCount; ++e) {
+			if (!isLoop(e)) {
+				--dummies;
+			}
+		}
+		nodeCount = realCount + dummies;
+		rank = Arrays.copyOf(rank, nodeCount);
+		nodeCluster = Arrays.copyOf(clusterOf, nodeCount);
+		nodeWidth = Arrays.copyOf(widths, nodeCount);
+		nodeHeight = Arrays.copyOf(heights, nodeCount);
+
+		int[] segUp = new int[segments];
+		int[] segDown = new int[segments];
+		int s = 0;
+		int dummy = realCount;
+		for (int e = 0; e < edgeCount; ++e) {
+			if (isLoop(e)) {
+				continue;
+			}
+			int top = from(e, reversed);
+			int bottom = to(e, reversed);
+			int c = nodeCluster[top] == nodeCluster[bottom] ? nodeCluster[top] : NONE;
+			int prev = top;
+			for (int r = rank[top] + 1; r < rank[bottom]; ++r) {
+				rank[dummy] = r;
+				nodeCluster[dummy] = c;
+				segUp[s] = prev;
+				segDown[s] = dummy;
+				++s;
+				prev = dummy++;
+			}
+			segUp[s] = prev;
+			segDown[s] = bottom;
+			++s;
+		}
+
+		int[] upCount = new int[nodeCount];
+		int[] downCount = new int[nodeCount];
+		for (int i = 0; i < segments; ++i) {
+			++downCount[segUp[i]];
+			++upCount[segDown[i]];
+		}
+		ups = new int[nodeCount][];
+		downs = new int[nodeCount][];
+		for (int v = 0; v < nodeCount; ++v) {
+			ups[v] = new int[upCount[v]];
+			downs[v] = new int[downCount[v]];
+			upCount[v] = 0;
+			downCount[v] = 0;
+		}
+		for (int i = 0; i < segments; ++i) {
+			downs[segUp[i]][downCount[segUp[i]]++] = segDown[i];
+			ups[segDown[i]][upCount[segDown[i]]++] = segUp[i];
+		}
+
+		int maxRank = 0;
+		for (int v = 0; v < nodeCount; ++v) {
+			maxRank = Math.max(maxRank, rank[v]);
+		}
+		int[] layerSize = new int[maxRank + 1];
+		for (int v = 0; v < nodeCount; ++v) {
+			++layerSize[rank[v]];
+		}
+		layers = new int[maxRank + 1][];
+		for (int r = 0; r <= maxRank; ++r) {
+			layers[r] = new int[layerSize[r]];
+			layerSize[r] = 0;
+		}
+		position = new int[nodeCount];
+		boolean[] seen = new boolean[nodeCount];
+		int[] queue = new int[nodeCount];
+		for (int r = 0; r <= maxRank; ++r) {
+			for (int root = 0; root < realCount; ++root) {
+				if (rank[root] != r || seen[root]) {
+					continue;
+				}
+				int head = 0;
+				int tail = 0;
+				queue[tail++] = root;
+				seen[root] = true;
+				while (head < tail) {
+					int v = queue[head++];
+					position[v] = layerSize[rank[v]]++;
+					layers[rank[v]][position[v]] = v;
+					for (int w : downs[v]) {
+						if (!seen[w]) {
+							seen[w] = true;
+							queue[tail++] = w;
+						}
+					}
+				}
+			}
+		}
+
+		int[] memberCount = new int[clusterCount];
+		for (int v = 0; v < nodeCount; ++v) {
+			if (nodeCluster[v] != NONE) {
+				++memberCount[nodeCluster[v]];
+			}
+		}
+		members = new int[clusterCount][];
+		for (int c = 0; c < clusterCount; ++c) {
+			members[c] = new int[memberCount[c]];
+			memberCount[c] = 0;
+		}
+		for (int v = 0; v < nodeCount; ++v) {
+			int c = nodeCluster[v];
+			if (c != NONE) {
+				members[c][memberCount[c]++] = v;
+			}
+		}
+		clusterKey = new double[clusterCount];
+	}
+
+	private void orderLayers() {
+		double[] key = new double[nodeCount];
+		updateClusterKeys();
+		for (int r = 0; r < layers.length; ++r) {
+			for (int v : layers[r]) {
+				key[v] = position[v];
+			}
+			arrange(layers[r], key);
+		}
+
+		int[][] best = copyLayers();
+		int bestCrossings = countCrossings();
+		for (int i = 0; i < ORDER_ITERATIONS && bestCrossings > 0; ++i) {
+			updateClusterKeys();
+			if (i % 2 == 0) {
+				for (int r = 1; r < layers.length; ++r) {
+					sortByBarycentre(layers[r], ups, key);
+				}
+			} else {
+				for (int r = layers.length - 2; r >= 0; --r) {
+					sortByBarycentre(layers[r], downs, key);
+				}
+			}
+			int crossings = countCrossings();
+			if (crossings < bestCrossings) {
+				bestCrossings = crossings;
+				best = copyLayers();
+			}
+		}
+		layers = best;
+		for (int[] layer : layers) {
+			for (int i = 0; i < layer.length; ++i) {
+				position[layer[i]] = i;
+			}
+		}
+		// layers that were not touched by the last sweep may still have
+		// their clusters in an older order
+		updateClusterKeys();
+		for (int[] layer : layers) {
+			for (int v : layer) {
+				key[v] = position[v];
+			}
+			arrange(layer, key);
+		}
+	}
+
+	private int[][] copyLayers() {
+		int[][] copy = new int[layers.length][];
+		for (int r = 0; r < layers.length; ++r) {
+			copy[r] = layers[r].clone();
+		}
+		return copy;
+	}
+
+	/*
+	 * Orders the clusters by the average relative position of their
+	 * members, so that they appear in the same order in every layer.
+	 */
+	private void updateClusterKeys() {
+		for (int c = 0; c < clusterCount; ++c) {
+			double sum = 0;
+			for (int v : members[c]) {
+				sum += (position[v] + 0.5) / layers[rank[v]].length;
+			}
+			clusterKey[c] = members[c].length == 0 ? 0 : sum / members[c].length;
+		}
+	}
+
+	private void sortByBarycentre(int[] layer, int[][] neighbours, double[] key) {
+		for (int v : layer) {
+			int[] ns = neighbours[v];
+			if (ns.length == 0) {
+				key[v] = position[v];
+			} else {
+				double sum = 0;
+				for (int w : ns) {
+					sum += position[w];
+				}
+				key[v] = sum / ns.length;
+			}
+		}
+		arrange(layer, key);
+	}
+
+	/*
+	 * Sorts a layer by key, keeping the members of each cluster together
+	 * and the clusters in their global order.
+	 */
+	private void arrange(int[] layer, final double[] key) {
+		final double[] itemKey = new double[layer.length];
+		Integer[] order = new Integer[layer.length];
+		for (int i = 0; i < layer.length; ++i) {
+			order[i] = i;
+		}
+		if (clusterCount > 0) {
+			double[] blockSum = new double[clusterCount];
+			int[] blockCount = new int[clusterCount];
+			for (int v : layer) {
+				int c = nodeCluster[v];
+				if (c != NONE) {
+					blockSum[c] += key[v];
+					++blockCount[c];
+				}
+			}
+			Integer[] present = new Integer[clusterCount];
+			int presentCount = 0;
+			double[] blockKeys = new double[clusterCount];
+			for (int c = 0; c < clusterCount; ++c) {
+				if (blockCount[c] > 0) {
+					blockKeys[presentCount] = blockSum[c] / blockCount[c];
+					present[presentCount++] = c;
+				}
+			}
+			// hand out the block positions in the global cluster order
+			Arrays.sort(blockKeys, 0, presentCount);
+			Arrays.sort(present, 0, presentCount, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(clusterKey[a], clusterKey[b]);
+				}
+			});
+			for (int i = 0; i < presentCount; ++i) {
+				blockSum[present[i]] = blockKeys[i];
+			}
+			for (int i = 0; i < layer.length; ++i) {
+				int c = nodeCluster[layer[i]];
+				itemKey[i] = c == NONE ? key[layer[i]] : blockSum[c];
+			}
+		} else {
+			for (int i = 0; i < layer.length; ++i) {
+				itemKey[i] = key[layer[i]];
+			}
+		}
+
+		final int[] nodes = layer.clone();
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int result = Double.compare(itemKey[a], itemKey[b]);
+				if (result == 0) {
+					result = nodeCluster[nodes[a]] - nodeCluster[nodes[b]];
+				}
+				if (result == 0) {
+					result = Double.compare(key[nodes[a]], key[nodes[b]]);
+				}
+				return result;
+			}
+		});
+		for (int i = 0; i < layer.length; ++i) {
+			layer[i] = nodes[order[i]];
+			position[layer[i]] = i;
+		}
+	}
+
+	/*
+	 * Counts crossings between each pair of adjacent layers, using the
+	 * accumulator tree of Barth, Juenger and Mutzel.
+	 */
+	private int countCrossings() {
+		int crossings = 0;
+		int[] lower = new int[0];
+		int[] tree = new int[0];
+		for (int r = 0; r + 1 < layers.length; ++r) {
+			int count = 0;
+			for (int v : layers[r]) {
+				count += downs[v].length;
+			}
+			if (lower.length < count) {
+				lower = new int[count];
+			}
+			int k = 0;
+			for (int v : layers[r]) {
+				int start = k;
+				for (int w : downs[v]) {
+					lower[k++] = position[w];
+				}
+				Arrays.sort(lower, start, k);
+			}
+
+			int first = 1;
+			while (first < layers[r + 1].length) {
+				first <<= 1;
+			}
+			int treeSize = 2 * first - 1;
+			if (tree.length < treeSize) {
+				tree = new int[treeSize];
+			} else {
+				Arrays.fill(tree, 0, treeSize, 0);
+			}
+			first -= 1;
+			for (int i = 0; i < count; ++i) {
+				int index = lower[i] + first;
+				++tree[index];
+				while (index > 0) {
+					if (index % 2 != 0) {
+						crossings += tree[index + 1];
+					}
+					index = (index - 1) / 2;
+					++tree[index];
+				}
+			}
+		}
+		return crossings;
+	}
+
+	private double gap(int a, int b) {
+		double gap = (nodeWidth[a] + nodeWidth[b]) / 2 + nodeSeparation;
+		int ca = nodeCluster[a];
+		int cb = nodeCluster[b];
+		if (ca != cb) {
+			if (ca != NONE) {
+				gap += clusterMargin;
+			}
+			if (cb != NONE) {
+				gap += clusterMargin;
+			}
+		}
+		return gap;
+	}
+
+	private void assignX() {
+		xs = new double[nodeCount];
+		for (int[] layer : layers) {
+			for (int i = 1; i < layer.length; ++i) {
+				xs[layer[i]] = xs[layer[i - 1]] + gap(layer[i - 1], layer[i]);
+			}
+		}
+		double[] desired = new double[nodeCount];
+		double[] offsets = new double[nodeCount];
+		double[] sums = new double[nodeCount];
+		int[] counts = new int[nodeCount];
+		for (int i = 0; i < POSITION_ITERATIONS; ++i) {
+			if (i % 2 == 0) {
+				for (int r = 1; r < layers.length; ++r) {
+					place(layers[r], true, false, desired, offsets, sums, counts);
+				}
+			} else {
+				for (int r = layers.length - 2; r >= 0; --r) {
+					place(layers[r], false, true, desired, offsets, sums, counts);
+				}
+			}
+		}
+		for (int[] layer : layers) {
+			place(layer, true, true, desired, offsets, sums, counts);
+		}
+	}
+
+	/*
+	 * Moves the nodes in a layer as close as possible (in the least
+	 * squares sense) to the average position of their neighbours, while
+	 * keeping them in order and properly spaced.
+	 *
+	 * With the minimum spacing subtracted out, this is isotonic
+	 * regression, which is solved by pooling adjacent violators.
+	 */
+	private void place(int[] layer, boolean useUps, boolean useDowns,
+			double[] desired, double[] offsets, double[] sums, int[] counts) {
+		int n = layer.length;
+		if (n == 0) {
+			return;
+		}
+		for (int i = 0; i < n; ++i) {
+			int v = layer[i];
+			double sum = 0;
+			int count = 0;
+			if (useUps) {
+				for (int w : ups[v]) {
+					sum += xs[w];
+				}
+				count += ups[v].length;
+			}
+			if (useDowns) {
+				for (int w : downs[v]) {
+					sum += xs[w];
+				}
+				count += downs[v].length;
+			}
+			offsets[i] = i == 0 ? 0 : offsets[i - 1] + gap(layer[i - 1], v);
+			desired[i] = (count == 0 ? xs[v] : sum / count) - offsets[i];
+		}
+		int blocks = 0;
+		for (int i = 0; i < n; ++i) {
+			sums[blocks] = desired[i];
+			counts[blocks] = 1;
+			++blocks;
+			while (blocks > 1 && sums[blocks - 2] / counts[blocks - 2]
+					> sums[blocks - 1] / counts[blocks - 1]) {
+				sums[blocks - 2] += sums[blocks - 1];
+				counts[blocks - 2] += counts[blocks - 1];
+				--blocks;
+			}
+		}
+		int i = 0;
+		for (int b = 0; b < blocks; ++b) {
+			double value = sums[b] / counts[b];
+			for (int j = 0; j < counts[b]; ++j, ++i) {
+				xs[layer[i]] = value + offsets[i];
+			}
+		}
+	}
+
+	/*
+	 * Pushes nodes (and clusters) to the right until no node is inside
+	 * the bounding box of a cluster it does not belong to.
+	 */
+	private void separateClusters() {
+		if (clusterCount == 0) {
+			return;
+		}
+		double[] left = new double[clusterCount];
+		double[] right = new double[clusterCount];
+		int[] top = new int[clusterCount];
+		int[] bottom = new int[clusterCount];
+		double[] centreSum = new double[clusterCount];
+		int[] centreCount = new int[clusterCount];
+		for (int pass = 0; pass < MAX_CLUSTER_PASSES; ++pass) {
+			for (int c = 0; c < clusterCount; ++c) {
+				left[c] = Double.POSITIVE_INFINITY;
+				right[c] = Double.NEGATIVE_INFINITY;
+				top[c] = Integer.MAX_VALUE;
+				bottom[c] = Integer.MIN_VALUE;
+				for (int v : members[c]) {
+					left[c] = Math.min(left[c], xs[v] - nodeWidth[v] / 2);
+					right[c] = Math.max(right[c], xs[v] + nodeWidth[v] / 2);
+					top[c] = Math.min(top[c], rank[v]);
+					bottom[c] = Math.max(bottom[c], rank[v]);
+				}
+				left[c] -= clusterMargin;
+				right[c] += clusterMargin;
+			}
+
+			boolean moved = false;
+			for (int r = 0; r < layers.length; ++r) {
+				int[] layer = layers[r];
+				Arrays.fill(centreSum, 0);
+				Arrays.fill(centreCount, 0);
+				for (int v : layer) {
+					if (nodeCluster[v] != NONE) {
+						centreSum[nodeCluster[v]] += xs[v];
+						++centreCount[nodeCluster[v]];
+					}
+				}
+				for (int i = 0; i < layer.length; ++i) {
+					int v = layer[i];
+					if (i > 0) {
+						double min = xs[layer[i - 1]] + gap(layer[i - 1], v);
+						if (xs[v] < min) {
+							xs[v] = min;
+							moved = true;
+						}
+					}
+					for (int c = 0; c < clusterCount; ++c) {
+						if (c == nodeCluster[v] || r < top[c] || r > bottom[c]) {
+							continue;
+						}
+						double lo = xs[v] - nodeWidth[v] / 2;
+						double hi = xs[v] + nodeWidth[v] / 2;
+						if (hi <= left[c] || lo >= right[c]) {
+							continue;
+						}
+						double centre = centreCount[c] > 0
+							? centreSum[c] / centreCount[c]
+							: (left[c] + right[c]) / 2;
+						if (xs[v] < centre) {
+							double shift = hi - left[c];
+							for (int w : members[c]) {
+								xs[w] += shift;
+							}
+							left[c] += shift;
+							right[c] += shift;
+							centreSum[c] += shift * centreCount[c];
+						} else {
+							xs[v] += right[c] - lo;
+						}
+						moved = true;
+					}
+				}
+			}
+			if (!moved) {
+				break;
+			}
+		}
+	}
+
+	private void assignY() {
+		ys = new double[nodeCount];
+		double y = 0;
+		for (int[] layer : layers) {
+			double h = 0;
+			for (int v : layer) {
+				h = Math.max(h, nodeHeight[v]);
+			}
+			for (int v : layer) {
+				ys[v] = y + h / 2;
+			}
+			y += h + rankSeparation;
+		}
+	}
+
+	/*
+	 * Moves the layout so the top-left corner of its bounding box
+	 * (including clusters) is at the origin.
+	 */
+	private void normalise() {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int v = 0; v < realCount; ++v) {
+			minX = Math.min(minX, xs[v] - nodeWidth[v] / 2);
+			maxX = Math.max(maxX, xs[v] + nodeWidth[v] / 2);
+			minY = Math.min(minY, ys[v] - nodeHeight[v] / 2);
+			maxY = Math.max(maxY, ys[v] + nodeHeight[v] / 2);
+		}
+		for (int c = 0; c < clusterCount; ++c) {
+			for (int v : members[c]) {
+				minX = Math.min(minX, xs[v] - nodeWidth[v] / 2 - clusterMargin);
+				maxX = Math.max(maxX, xs[v] + nodeWidth[v] / 2 + clusterMargin);
+				minY = Math.min(minY, ys[v] - nodeHeight[v] / 2 - clusterMargin);
+				maxY = Math.max(maxY, ys[v] + nodeHeight[v] / 2 + clusterMargin);
+			}
+		}
+		for (int v = 0; v < nodeCount; ++v) {
+			xs[v] -= minX;
+			ys[v] -= minY;
+		}
+		width = maxX - minX;
+		height = maxY - minY;
+	}
+}
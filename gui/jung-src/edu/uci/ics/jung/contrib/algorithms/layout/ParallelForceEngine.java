@@ -0,0 +1,239 @@
+package edu.uci.ics.jung.contrib.algorithms.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Does the steps of a spring-electrical force layout.
+ *
+ * The layout state is kept by the caller in flat arrays indexed by
+ * vertex.  Each step, the forces on the vertices are worked out from
+ * the positions at the start of the step, and then every vertex is moved
+ * at once.  The repulsion is exact for small graphs, and uses a
+ * Barnes-Hut tree for large ones.  If parallel is set, large graphs are
+ * split into blocks, and the forces on each block are worked out on a
+ * shared pool of threads.
+ *
+ * The caller should stop once the vertices have stopped moving, going by
+ * what step() returns, rather than running a fixed number of steps.
+ */
+public class ParallelForceEngine {
+	/**
+	 * Graphs with fewer vertices than this are not worth splitting up
+	 */
+	public static final int MIN_PARALLEL_VERTICES = 256;
+	// the fewest vertices in a block
+	private static final int MIN_BLOCK = 64;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static ExecutorService pool = null;
+
+	private final double repulsion;
+	private final double attraction;
+	private final double timestep;
+	private final double damping;
+	private double minCoordinate = Double.NEGATIVE_INFINITY;
+	private int barnesHutThreshold = 100;
+	private double barnesHutTheta = 0.8;
+	private boolean parallel = false;
+	private final BarnesHutQuadTree quadTree = new BarnesHutQuadTree();
+	private final List<Block> blocks = new ArrayList<Block>();
+
+	/*
+	 * The state for one step, shared by the blocks
+	 */
+	private double[] xs;
+	private double[] ys;
+	private double[] vxs;
+	private double[] vys;
+	private boolean[] locked;
+	private int[][] successors;
+	private int count;
+	private boolean approximate;
+
+	private class Block implements Callable<Object> {
+		int from;
+		int to;
+		final double[] force = new double[2];
+		int[] stack = new int[0];
+
+		public Object call() {
+			if (approximate && stack.length < quadTree.getStackSize()) {
+				stack = new int[quadTree.getStackSize()];
+			}
+			for (int i = from; i < to; ++i) {
+				if (locked[i]) {
+					continue;
+				}
+				force[0] = 0;
+				force[1] = 0;
+				if (approximate) {
+					quadTree.addRepulsion(i, repulsion, barnesHutTheta, force, stack);
+				} else {
+					addExactRepulsion(i);
+				}
+				for (int j : successors[i]) {
+					force[0] += attraction * (xs[j] - xs[i]);
+					force[1] += attraction * (ys[j] - ys[i]);
+				}
+				vxs[i] = force[0] * timestep * damping;
+				vys[i] = force[1] * timestep * damping;
+			}
+			return null;
+		}
+
+		private void addExactRepulsion(int i) {
+			double x = xs[i];
+			double y = ys[i];
+			double fx = 0;
+			double fy = 0;
+			for (int j = 0; j < count; ++j) {
+				if (j != i) {
+					double dx = x - xs[j];
+					double dy = y - ys[j];
+					double distSq = dx * dx + dy * dy;
+					if (distSq > 0) {
+						fx += repulsion * dx / distSq;
+						fy += repulsion * dy / distSq;
+					}
+				}
+			}
+			force[0] += fx;
+			force[1] += fy;
+		}
+	}
+
+	/**
+	 * @param repulsion  the strength of the repulsion between each pair
+	 *                   of vertices
+	 * @param attraction  the strength of the spring along each edge
+	 * @param timestep  how far the vertices move each step
+	 * @param damping  how much of the velocity is kept
+	 */
+	public ParallelForceEngine(double repulsion, double attraction,
+			double timestep, double damping) {
+		this.repulsion = repulsion;
+		this.attraction = attraction;
+		this.timestep = timestep;
+		this.damping = damping;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Force layout");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Whether to use more than one thread for graphs of at least
+	 * MIN_PARALLEL_VERTICES vertices; off by default.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Vertices are not moved to a coordinate less than this.
+	 */
+	public void setMinCoordinate(double minCoordinate) {
+		this.minCoordinate = minCoordinate;
+	}
+
+	/**
+	 * Use the Barnes-Hut approximation for graphs with at least this
+	 * many vertices.
+	 */
+	public void setBarnesHut(int threshold, double theta) {
+		this.barnesHutThreshold = threshold;
+		this.barnesHutTheta = theta;
+	}
+
+	/**
+	 * Moves every unlocked vertex once.
+	 *
+	 * @param xs  the x coordinates, updated in place
+	 * @param ys  the y coordinates, updated in place
+	 * @param vxs  filled in with the x velocities
+	 * @param vys  filled in with the y velocities
+	 * @param locked  the vertices that must not move
+	 * @param successors  the vertices each vertex has an edge to
+	 * @param count  the number of vertices; the arrays may be longer
+	 * @return the furthest any vertex moved, or 0 if none did
+	 */
+	public double step(double[] xs, double[] ys, double[] vxs, double[] vys,
+			boolean[] locked, int[][] successors, int count) {
+		this.xs = xs;
+		this.ys = ys;
+		this.vxs = vxs;
+		this.vys = vys;
+		this.locked = locked;
+		this.successors = successors;
+		this.count = count;
+		approximate = count >= barnesHutThreshold;
+		if (approximate) {
+			quadTree.build(xs, ys, count);
+		}
+
+		int blockCount = 1;
+		if (parallel && count >= MIN_PARALLEL_VERTICES) {
+			blockCount = Math.max(1, Math.min(THREADS * 4, count / MIN_BLOCK));
+		}
+		while (blocks.size() < blockCount) {
+			blocks.add(new Block());
+		}
+		List<Block> work = blocks.subList(0, blockCount);
+		for (int b = 0; b < blockCount; ++b) {
+			Block block = work.get(b);
+			block.from = (int) ((long) count * b / blockCount);
+			block.to = (int) ((long) count * (b + 1) / blockCount);
+		}
+		try {
+			if (blockCount == 1) {
+				work.get(0).call();
+			} else {
+				for (Future<Object> f : getPool().invokeAll(work)) {
+					f.get();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		}
+
+		double maxMoveSq = 0;
+		for (int i = 0; i < count; ++i) {
+			if (!locked[i]) {
+				double x = Math.max(xs[i] + vxs[i] * timestep, minCoordinate);
+				double y = Math.max(ys[i] + vys[i] * timestep, minCoordinate);
+				double dx = x - xs[i];
+				double dy = y - ys[i];
+				maxMoveSq = Math.max(maxMoveSq, dx * dx + dy * dy);
+				xs[i] = x;
+				ys[i] = y;
+			}
+		}
+		this.xs = this.ys = this.vxs = this.vys = null;
+		this.locked = null;
+		this.successors = null;
+		return Math.sqrt(maxMoveSq);
+	}
+}
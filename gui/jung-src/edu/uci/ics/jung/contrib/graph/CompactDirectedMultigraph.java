@@ -0,0 +1,789 @@
+package edu.uci.ics.jung.contrib.graph;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.uci.ics.jung.graph.AbstractTypedGraph;
+import edu.uci.ics.jung.graph.DirectedGraph;
+import edu.uci.ics.jung.graph.MultiGraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * A directed multigraph stored in arrays indexed by small integer ids,
+ * rather than in per-vertex hash sets.
+ *
+ * Each vertex and edge is given an id when it is added; ids of removed
+ * elements are reused.  The in- and out-edges of each vertex are kept
+ * in doubly-linked lists threaded through the edge arrays, so adding and
+ * removing elements takes constant time (apart from removing the edges
+ * of a removed vertex).
+ *
+ * The collections returned by getVertices(), getEdges(), getInEdges()
+ * and getOutEdges() are live, unmodifiable views, which throw a
+ * ConcurrentModificationException if the graph changes while they are
+ * being iterated over.  getPredecessors(), getSuccessors(),
+ * getNeighbors() and getIncidentEdges() return copies, as the sparse
+ * graphs do, so callers can change the graph while going through them.
+ *
+ * Code that needs to walk the graph without creating any objects can use
+ * the ids directly:
+ * <pre>
+ * int v = graph.getVertexId(vertex);
+ * for (int e = graph.firstOutEdge(v); e != -1; e = graph.nextOutEdge(e)) {
+ *     int w = graph.getDestId(e);
+ *     ...
+ * }
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class CompactDirectedMultigraph<V, E>
+	extends AbstractTypedGraph<V, E>
+	implements DirectedGraph<V, E>, MultiGraph<V, E> {
+
+	/**
+	 * The id returned for elements that are not in the graph, and
+	 * at the end of an edge list.
+	 */
+	public static final int NONE = -1;
+
+	// vertices; a free slot has a null vertex, and free slots are
+	// chained through firstOut
+	private Object[] vertexAt = new Object[8];
+	private int[] firstOut = new int[8];
+	private int[] firstIn = new int[8];
+	private int[] outDegree = new int[8];
+	private int[] inDegree = new int[8];
+	private int vertexBound = 0;
+	private int freeVertex = NONE;
+	private int vertexCount = 0;
+	private final ElementIndex vertexIds = new ElementIndex();
+
+	// edges; free slots are chained through nextOut
+	private Object[] edgeAt = new Object[8];
+	private int[] sourceOf = new int[8];
+	private int[] destOf = new int[8];
+	private int[] nextOut = new int[8];
+	private int[] prevOut = new int[8];
+	private int[] nextIn = new int[8];
+	private int[] prevIn = new int[8];
+	private int edgeBound = 0;
+	private int freeEdge = NONE;
+	private int edgeCount = 0;
+	private final ElementIndex edgeIds = new ElementIndex();
+
+	protected transient int modCount = 0;
+	private transient Collection<V> vertexView;
+	private transient Collection<E> edgeView;
+	// the vertices with seen[id] == seenStamp have been found by the
+	// current call to opposites()
+	private transient int[] seen;
+	private transient int seenStamp = 0;
+
+	public CompactDirectedMultigraph() {
+		super(EdgeType.DIRECTED);
+	}
+
+	private static int[] grow(int[] a, int length) {
+		int[] result = new int[length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+
+	private static Object[] grow(Object[] a, int length) {
+		Object[] result = new Object[length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+
+	private int allocateVertex() {
+		if (freeVertex != NONE) {
+			int id = freeVertex;
+			freeVertex = firstOut[id];
+			return id;
+		}
+		if (vertexBound == vertexAt.length) {
+			int length = vertexBound * 2;
+			vertexAt = grow(vertexAt, length);
+			firstOut = grow(firstOut, length);
+			firstIn = grow(firstIn, length);
+			outDegree = grow(outDegree, length);
+			inDegree = grow(inDegree, length);
+		}
+		return vertexBound++;
+	}
+
+	private int allocateEdge() {
+		if (freeEdge != NONE) {
+			int id = freeEdge;
+			freeEdge = nextOut[id];
+			return id;
+		}
+		if (edgeBound == edgeAt.length) {
+			int length = edgeBound * 2;
+			edgeAt = grow(edgeAt, length);
+			sourceOf = grow(sourceOf, length);
+			destOf = grow(destOf, length);
+			nextOut = grow(nextOut, length);
+			prevOut = grow(prevOut, length);
+			nextIn = grow(nextIn, length);
+			prevIn = grow(prevIn, length);
+		}
+		return edgeBound++;
+	}
+
+	/*
+	 * Id-based access
+	 */
+
+	/**
+	 * @return the id of the vertex, or NONE if it is not in the graph
+	 */
+	public int getVertexId(V vertex) {
+		return vertex == null ? NONE : vertexIds.get(vertex);
+	}
+
+	/**
+	 * @return the id of the edge, or NONE if it is not in the graph
+	 */
+	public int getEdgeId(E edge) {
+		return edge == null ? NONE : edgeIds.get(edge);
+	}
+
+	/**
+	 * All vertex ids are less than this.
+	 */
+	public int getVertexIdBound() {
+		return vertexBound;
+	}
+
+	/**
+	 * All edge ids are less than this.
+	 */
+	public int getEdgeIdBound() {
+		return edgeBound;
+	}
+
+	/**
+	 * Changes whenever a vertex or edge is added or removed, so callers
+	 * can tell whether anything they worked out from the graph is stale.
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * @return the vertex with the given id, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V getVertexById(int id) {
+		return (V) vertexAt[id];
+	}
+
+	/**
+	 * @return the edge with the given id, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public E getEdgeById(int id) {
+		return (E) edgeAt[id];
+	}
+
+	public int firstOutEdge(int vertexId) {
+		return firstOut[vertexId];
+	}
+
+	public int nextOutEdge(int edgeId) {
+		return nextOut[edgeId];
+	}
+
+	public int firstInEdge(int vertexId) {
+		return firstIn[vertexId];
+	}
+
+	public int nextInEdge(int edgeId) {
+		return nextIn[edgeId];
+	}
+
+	public int getSourceId(int edgeId) {
+		return sourceOf[edgeId];
+	}
+
+	public int getDestId(int edgeId) {
+		return destOf[edgeId];
+	}
+
+	/*
+	 * Mutation
+	 */
+
+	public boolean addVertex(V vertex) {
+		if (vertex == null) {
+			throw new IllegalArgumentException("vertex may not be null");
+		}
+		if (vertexIds.get(vertex) != NONE) {
+			return false;
+		}
+		int id = allocateVertex();
+		vertexAt[id] = vertex;
+		firstOut[id] = NONE;
+		firstIn[id] = NONE;
+		outDegree[id] = 0;
+		inDegree[id] = 0;
+		vertexIds.put(vertex, id);
+		++vertexCount;
+		++modCount;
+		return true;
+	}
+
+	public boolean removeVertex(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return false;
+		}
+		while (firstOut[id] != NONE) {
+			removeEdgeById(firstOut[id]);
+		}
+		while (firstIn[id] != NONE) {
+			removeEdgeById(firstIn[id]);
+		}
+		vertexIds.remove(vertex);
+		vertexAt[id] = null;
+		firstOut[id] = freeVertex;
+		freeVertex = id;
+		--vertexCount;
+		++modCount;
+		return true;
+	}
+
+	@Override
+	public boolean addEdge(E edge, Pair<? extends V> endpoints, EdgeType edgeType) {
+		validateEdgeType(edgeType);
+		Pair<V> newEndpoints = getValidatedEndpoints(edge, endpoints);
+		if (newEndpoints == null) {
+			return false;
+		}
+		V source = newEndpoints.getFirst();
+		V dest = newEndpoints.getSecond();
+		addVertex(source);
+		addVertex(dest);
+		int s = vertexIds.get(source);
+		int t = vertexIds.get(dest);
+
+		int id = allocateEdge();
+		edgeAt[id] = edge;
+		sourceOf[id] = s;
+		destOf[id] = t;
+
+		prevOut[id] = NONE;
+		nextOut[id] = firstOut[s];
+		if (firstOut[s] != NONE) {
+			prevOut[firstOut[s]] = id;
+		}
+		firstOut[s] = id;
+		++outDegree[s];
+
+		prevIn[id] = NONE;
+		nextIn[id] = firstIn[t];
+		if (firstIn[t] != NONE) {
+			prevIn[firstIn[t]] = id;
+		}
+		firstIn[t] = id;
+		++inDegree[t];
+
+		edgeIds.put(edge, id);
+		++edgeCount;
+		++modCount;
+		return true;
+	}
+
+	public boolean removeEdge(E edge) {
+		int id = getEdgeId(edge);
+		if (id == NONE) {
+			return false;
+		}
+		removeEdgeById(id);
+		return true;
+	}
+
+	private void removeEdgeById(int id) {
+		int s = sourceOf[id];
+		int t = destOf[id];
+		if (prevOut[id] == NONE) {
+			firstOut[s] = nextOut[id];
+		} else {
+			nextOut[prevOut[id]] = nextOut[id];
+		}
+		if (nextOut[id] != NONE) {
+			prevOut[nextOut[id]] = prevOut[id];
+		}
+		--outDegree[s];
+
+		if (prevIn[id] == NONE) {
+			firstIn[t] = nextIn[id];
+		} else {
+			nextIn[prevIn[id]] = nextIn[id];
+		}
+		if (nextIn[id] != NONE) {
+			prevIn[nextIn[id]] = prevIn[id];
+		}
+		--inDegree[t];
+
+		edgeIds.remove(edgeAt[id]);
+		edgeAt[id] = null;
+		nextOut[id] = freeEdge;
+		freeEdge = id;
+		--edgeCount;
+		++modCount;
+	}
+
+	/*
+	 * Queries
+	 */
+
+	public boolean containsVertex(V vertex) {
+		return getVertexId(vertex) != NONE;
+	}
+
+	public boolean containsEdge(E edge) {
+		return getEdgeId(edge) != NONE;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public Collection<V> getVertices() {
+		if (vertexView == null) {
+			vertexView = new SlotView<V>(true);
+		}
+		return vertexView;
+	}
+
+	public Collection<E> getEdges() {
+		if (edgeView == null) {
+			edgeView = new SlotView<E>(false);
+		}
+		return edgeView;
+	}
+
+	public Pair<V> getEndpoints(E edge) {
+		int id = getEdgeId(edge);
+		if (id == NONE) {
+			return null;
+		}
+		return new Pair<V>(getVertexById(sourceOf[id]), getVertexById(destOf[id]));
+	}
+
+	public V getSource(E edge) {
+		int id = getEdgeId(edge);
+		return id == NONE ? null : getVertexById(sourceOf[id]);
+	}
+
+	public V getDest(E edge) {
+		int id = getEdgeId(edge);
+		return id == NONE ? null : getVertexById(destOf[id]);
+	}
+
+	public boolean isSource(V vertex, E edge) {
+		int e = getEdgeId(edge);
+		int v = getVertexId(vertex);
+		return e != NONE && v != NONE && sourceOf[e] == v;
+	}
+
+	public boolean isDest(V vertex, E edge) {
+		int e = getEdgeId(edge);
+		int v = getVertexId(vertex);
+		return e != NONE && v != NONE && destOf[e] == v;
+	}
+
+	@Override
+	public V getOpposite(V vertex, E edge) {
+		int e = getEdgeId(edge);
+		int v = getVertexId(vertex);
+		if (e == NONE || v == NONE || (sourceOf[e] != v && destOf[e] != v)) {
+			throw new IllegalArgumentException(vertex + " is not incident to " + edge + " in this graph");
+		}
+		return getVertexById(sourceOf[e] == v ? destOf[e] : sourceOf[e]);
+	}
+
+	public Collection<E> getInEdges(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		return new AdjacencyView(vertex, id, false);
+	}
+
+	public Collection<E> getOutEdges(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		return new AdjacencyView(vertex, id, true);
+	}
+
+	public Collection<V> getPredecessors(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		return opposites(id, false, true);
+	}
+
+	public Collection<V> getSuccessors(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		return opposites(id, true, false);
+	}
+
+	public Collection<V> getNeighbors(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		return opposites(id, true, true);
+	}
+
+	/*
+	 * The distinct vertices at the other end of the out-edges and/or
+	 * in-edges of a vertex.  Each is marked in seen as it is found,
+	 * which is synchronized as seen is shared.
+	 */
+	private synchronized Collection<V> opposites(int id, boolean out, boolean in) {
+		if (seen == null || seen.length < vertexBound) {
+			seen = new int[vertexAt.length];
+			seenStamp = 0;
+		}
+		if (++seenStamp == 0) {
+			Arrays.fill(seen, 0);
+			seenStamp = 1;
+		}
+		Collection<V> result = new ArrayList<V>(
+			(out ? outDegree[id] : 0) + (in ? inDegree[id] : 0));
+		if (out) {
+			for (int e = firstOut[id]; e != NONE; e = nextOut[e]) {
+				int w = destOf[e];
+				if (seen[w] != seenStamp) {
+					seen[w] = seenStamp;
+					result.add(getVertexById(w));
+				}
+			}
+		}
+		if (in) {
+			for (int e = firstIn[id]; e != NONE; e = nextIn[e]) {
+				int w = sourceOf[e];
+				if (seen[w] != seenStamp) {
+					seen[w] = seenStamp;
+					result.add(getVertexById(w));
+				}
+			}
+		}
+		return result;
+	}
+
+	public Collection<E> getIncidentEdges(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			return null;
+		}
+		Collection<E> incident = new ArrayList<E>(outDegree[id] + inDegree[id]);
+		for (int e = firstOut[id]; e != NONE; e = nextOut[e]) {
+			incident.add(getEdgeById(e));
+		}
+		for (int e = firstIn[id]; e != NONE; e = nextIn[e]) {
+			if (sourceOf[e] != id) {
+				incident.add(getEdgeById(e));
+			}
+		}
+		return incident;
+	}
+
+	@Override
+	public E findEdge(V v1, V v2) {
+		int s = getVertexId(v1);
+		int t = getVertexId(v2);
+		if (s == NONE || t == NONE) {
+			return null;
+		}
+		for (int e = firstOut[s]; e != NONE; e = nextOut[e]) {
+			if (destOf[e] == t) {
+				return getEdgeById(e);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int inDegree(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			throw new IllegalArgumentException(vertex + " is not a vertex in this graph");
+		}
+		return inDegree[id];
+	}
+
+	@Override
+	public int outDegree(V vertex) {
+		int id = getVertexId(vertex);
+		if (id == NONE) {
+			throw new IllegalArgumentException(vertex + " is not a vertex in this graph");
+		}
+		return outDegree[id];
+	}
+
+	@Override
+	public boolean isSuccessor(V v1, V v2) {
+		int s = getVertexId(v1);
+		int t = getVertexId(v2);
+		return s != NONE && t != NONE && hasSuccessor(s, t);
+	}
+
+	@Override
+	public boolean isPredecessor(V v1, V v2) {
+		int t = getVertexId(v1);
+		int s = getVertexId(v2);
+		return s != NONE && t != NONE && hasSuccessor(s, t);
+	}
+
+	private boolean hasSuccessor(int s, int t) {
+		for (int e = firstOut[s]; e != NONE; e = nextOut[e]) {
+			if (destOf[e] == t) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * A view on all the vertices or all the edges.
+	 */
+	private class SlotView<T> extends AbstractCollection<T> {
+		private final boolean vertices;
+
+		SlotView(boolean vertices) {
+			this.vertices = vertices;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+
+				private final int expectedModCount = modCount;
+				private int slot = advance(0);
+
+				private int advance(int i) {
+					Object[] slots = vertices ? vertexAt : edgeAt;
+					int bound = vertices ? vertexBound : edgeBound;
+					while (i < bound && slots[i] == null) {
+						++i;
+					}
+					return i;
+				}
+
+				public boolean hasNext() {
+					return slot < (vertices ? vertexBound : edgeBound);
+				}
+
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					}
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					T result = (T) (vertices ? vertexAt : edgeAt)[slot];
+					slot = advance(slot + 1);
+					return result;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean contains(Object o) {
+			return vertices ? containsVertex((V) o) : containsEdge((E) o);
+		}
+
+		@Override
+		public int size() {
+			return vertices ? vertexCount : edgeCount;
+		}
+	}
+
+	/*
+	 * A view on the in- or out-edges of a vertex.
+	 */
+	private class AdjacencyView extends AbstractCollection<E> {
+		private final V vertex;
+		private final int id;
+		private final boolean out;
+
+		AdjacencyView(V vertex, int id, boolean out) {
+			this.vertex = vertex;
+			this.id = id;
+			this.out = out;
+		}
+
+		private boolean valid() {
+			return vertexAt[id] == vertex;
+		}
+
+		private int first() {
+			return valid() ? (out ? firstOut[id] : firstIn[id]) : NONE;
+		}
+
+		private int following(int e) {
+			return out ? nextOut[e] : nextIn[e];
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+
+				private final int expectedModCount = modCount;
+				private int edge = first();
+
+				public boolean hasNext() {
+					return edge != NONE;
+				}
+
+				public E next() {
+					if (modCount != expectedModCount) {
+						throw new ConcurrentModificationException();
+					}
+					if (edge == NONE) {
+						throw new NoSuchElementException();
+					}
+					E result = getEdgeById(edge);
+					edge = following(edge);
+					return result;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!valid() || o == null) {
+				return false;
+			}
+			int e = edgeIds.get(o);
+			if (e == NONE) {
+				return false;
+			}
+			return out ? sourceOf[e] == id : destOf[e] == id;
+		}
+
+		@Override
+		public int size() {
+			if (!valid()) {
+				return 0;
+			}
+			return out ? outDegree[id] : inDegree[id];
+		}
+	}
+
+	/*
+	 * A hash map from elements to ids, with open addressing, so that it
+	 * needs no objects per entry.
+	 */
+	private static final class ElementIndex implements Serializable {
+		private Object[] keys = new Object[16];
+		private int[] values = new int[16];
+		private int size = 0;
+
+		private static int slot(Object key, int mask) {
+			int h = key.hashCode();
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			return h & mask;
+		}
+
+		int get(Object key) {
+			int mask = keys.length - 1;
+			for (int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask) {
+				if (keys[i].equals(key)) {
+					return values[i];
+				}
+			}
+			return NONE;
+		}
+
+		// the key must not already be present
+		void put(Object key, int value) {
+			if (2 * (size + 1) > keys.length) {
+				resize(keys.length * 2);
+			}
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			++size;
+		}
+
+		void remove(Object key) {
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (keys[i] != null && !keys[i].equals(key)) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == null) {
+				return;
+			}
+			// move back any later entries that would no longer be found
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (keys[j] == null) {
+					break;
+				}
+				int k = slot(keys[j], mask);
+				boolean reachable = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+				if (!reachable) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			keys[i] = null;
+			--size;
+		}
+
+		private void resize(int capacity) {
+			Object[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new Object[capacity];
+			values = new int[capacity];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; ++i) {
+				if (oldKeys[i] != null) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+}
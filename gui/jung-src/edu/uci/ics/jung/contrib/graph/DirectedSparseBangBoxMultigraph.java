@@ -5,30 +5,42 @@
 
 package edu.uci.ics.jung.contrib.graph;
 
-import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 /**
+ * The contents of each !-box are stored as a set of vertex ids (see
+ * CompactDirectedMultigraph), so the vertices must already be in the
+ * graph when they are added to a !-box.
  *
  * @author alex
  */
 public class DirectedSparseBangBoxMultigraph<V,E,B>
-	extends DirectedSparseMultigraph<V, E>
+	extends CompactDirectedMultigraph<V, E>
 	implements DirectedBangBoxGraph<V, E, B> {
 
-	protected Map<B,Set<V>> bangBoxes;
+	protected Map<B,BitSet> bangBoxes;
 
 	public DirectedSparseBangBoxMultigraph() {
-		bangBoxes = new HashMap<B, Set<V>>();
+		bangBoxes = new HashMap<B, BitSet>();
 	}
 
-	protected Set<V> getBangBoxContents(B bangbox, Collection<? extends V> vertices) {
-		return new HashSet<V>(vertices);
+	private BitSet toVertexIds(Collection<? extends V> vertices) {
+		BitSet ids = new BitSet(getVertexIdBound());
+		for (V v : vertices) {
+			int id = getVertexId(v);
+			if (id == NONE)
+				throw new IllegalArgumentException(v + " is not a vertex in this graph");
+			ids.set(id);
+		}
+		return ids;
 	}
 
 	public Collection<B> getBangBoxes() {
@@ -49,7 +61,7 @@ public class DirectedSparseBangBoxMultigraph<V,E,B>
 		if (containsBangBox(bangbox))
 			return false;
 
-		bangBoxes.put(bangbox, getBangBoxContents(bangbox, vertices));
+		bangBoxes.put(bangbox, toVertexIds(vertices));
 		return true;
 	}
 
@@ -67,10 +79,48 @@ public class DirectedSparseBangBoxMultigraph<V,E,B>
 	}
 
 	public Collection<V> getBoxedVertices(B bangbox) {
-		if (!containsBangBox(bangbox))
+		final BitSet contents = bangBoxes.get(bangbox);
+		if (contents == null)
 			return null;
 
-		return Collections.unmodifiableCollection(bangBoxes.get(bangbox));
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private int next = contents.nextSetBit(0);
+
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					public V next() {
+						if (next < 0)
+							throw new NoSuchElementException();
+						V v = getVertexById(next);
+						next = contents.nextSetBit(next + 1);
+						return v;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public boolean contains(Object o) {
+				int id = getVertexId((V) o);
+				return id != NONE && contents.get(id);
+			}
+
+			@Override
+			public int size() {
+				return contents.cardinality();
+			}
+		};
 	}
 
 	public Collection<V> setBoxedVertices(B bangbox, Collection<? extends V> vertices) {
@@ -83,16 +133,18 @@ public class DirectedSparseBangBoxMultigraph<V,E,B>
 		if (!containsBangBox(bangbox))
 			throw new IllegalArgumentException("bangbox is not in this graph");
 
-		Set<V> oldContents = bangBoxes.get(bangbox);
-		bangBoxes.put(bangbox, getBangBoxContents(bangbox, vertices));
+		Collection<V> oldContents = new ArrayList<V>(getBoxedVertices(bangbox));
+		bangBoxes.put(bangbox, toVertexIds(vertices));
 		return oldContents;
 	}
 
 	@Override
 	public boolean removeVertex(V vertex) {
+		int id = getVertexId(vertex);
 		if (super.removeVertex(vertex)) {
-			for (Set<V> contents : bangBoxes.values()) {
-				contents.remove(vertex);
+			// the id may be reused by a new vertex
+			for (BitSet contents : bangBoxes.values()) {
+				contents.clear(id);
 			}
 			return true;
 		} else {
@@ -12,10 +12,22 @@ import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import org.apache.commons.collections15.Transformer;
 
 /**
+ * Gives each !-box a rectangle around the vertices it contains.
+ *
+ * The rectangles are cached, along with the bounds of each vertex.  A
+ * rectangle is only recomputed when a vertex in the box has moved or
+ * changed shape, when the contents of the box have changed or when the
+ * layout transform has changed, and then only the bounds of the vertices
+ * that have changed are recomputed.  Picking uses the same transformer
+ * as rendering, so shares the cache.
  *
  * @author alemer
  */
@@ -24,6 +36,57 @@ public class DefaultBangBoxShapeTransformer<V, E, B>
 
 	protected double padding;
 	protected BangBoxGraphRenderContext<V, E, B> renderContext;
+	private final Map<B, Entry> cache = new WeakHashMap<B, Entry>();
+	private final AffineTransform layoutTransform = new AffineTransform();
+
+	private class Entry {
+		Layout<V, E> layout;
+		List<V> vertices = new ArrayList<V>();
+		List<Shape> shapes = new ArrayList<Shape>();
+		// the layout position of each vertex, and its bounds in the
+		// layout layer
+		double[] positions = new double[0];
+		Rectangle2D[] bounds = new Rectangle2D[0];
+		Rectangle2D rect;
+
+		/**
+		 * @return whether anything changed
+		 */
+		boolean update(Layout<V, E> layout, Collection<V> contents) {
+			boolean changed = this.layout != layout || vertices.size() != contents.size();
+			if (changed) {
+				this.layout = layout;
+				int size = contents.size();
+				vertices.clear();
+				shapes.clear();
+				positions = new double[2 * size];
+				bounds = new Rectangle2D[size];
+			}
+			int i = 0;
+			for (V v : contents) {
+				Point2D p = layout.transform(v);
+				Shape shape = renderContext.getVertexShapeTransformer().transform(v);
+				if (i == vertices.size()) {
+					vertices.add(v);
+					shapes.add(shape);
+				} else if (vertices.get(i) != v || shapes.get(i) != shape
+						|| positions[2 * i] != p.getX()
+						|| positions[2 * i + 1] != p.getY()) {
+					vertices.set(i, v);
+					shapes.set(i, shape);
+				} else if (bounds[i] != null) {
+					++i;
+					continue;
+				}
+				positions[2 * i] = p.getX();
+				positions[2 * i + 1] = p.getY();
+				bounds[i] = vertexBounds(p, shape);
+				changed = true;
+				++i;
+			}
+			return changed;
+		}
+	}
 
 	public DefaultBangBoxShapeTransformer(BangBoxGraphRenderContext<V, E, B> renderContext, double padding) {
 		this.renderContext = renderContext;
@@ -33,32 +96,61 @@ public class DefaultBangBoxShapeTransformer<V, E, B>
 	public Shape transform(LayoutContext<Layout<V, E>, B> context) {
 		@SuppressWarnings("unchecked")
 		BangBoxGraph<V, E, B> graph = (BangBoxGraph<V, E, B>) context.layout.getGraph();
-		Rectangle2D rect = vertexBounds(context.layout, graph.getBoxedVertices(context.element));
-        if (rect != null) {
-            rect.setRect(rect.getX() - padding,
-                     rect.getY() - padding,
-                     rect.getWidth() + 2*padding,
-                     rect.getHeight() + 2*padding);
-        } else {
-            // FIXME: do something sensible with empty !-boxes
-            rect = new Rectangle2D.Double(0, 0, 1, 1);
-        }
-		return rect;
-	}
+		AffineTransform current = renderContext.getMultiLayerTransformer()
+			.getTransformer(Layer.LAYOUT).getTransform();
+		if (!layoutTransform.equals(current)) {
+			// every vertex has moved on screen
+			cache.clear();
+			layoutTransform.setTransform(current);
+		}
 
-	protected Rectangle2D vertexBounds(Layout<V, E> layout, Collection<V> vertices) {
-		Rectangle2D rect = null;
-		for (V v : vertices) {
-			Point2D p = layout.transform(v);
-			p = renderContext.getMultiLayerTransformer().transform(Layer.LAYOUT, p);
-			AffineTransform xform = AffineTransform.getTranslateInstance(p.getX(), p.getY());
-			Shape shape = xform.createTransformedShape(renderContext.getVertexShapeTransformer().transform(v));
-			if (rect == null)
-				rect = shape.getBounds2D();
-			else
-				rect.add(shape.getBounds2D());
+		Entry entry = cache.get(context.element);
+		if (entry == null) {
+			entry = new Entry();
+			cache.put(context.element, entry);
+		}
+		if (entry.update(context.layout, graph.getBoxedVertices(context.element))
+				|| entry.rect == null) {
+			Rectangle2D rect = null;
+			for (Rectangle2D b : entry.bounds) {
+				if (rect == null)
+					rect = (Rectangle2D) b.clone();
+				else
+					rect.add(b);
+			}
+			if (rect != null) {
+				rect.setRect(rect.getX() - padding,
+					     rect.getY() - padding,
+					     rect.getWidth() + 2*padding,
+					     rect.getHeight() + 2*padding);
+			} else {
+				// FIXME: do something sensible with empty !-boxes
+				rect = new Rectangle2D.Double(0, 0, 1, 1);
+			}
+			entry.rect = rect;
 		}
-		return rect;
+		return (Shape) entry.rect.clone();
+	}
+
+	/**
+	 * Forgets all the cached rectangles.
+	 *
+	 * This is only needed if the vertex shape transformer can return the
+	 * same shape object with a different outline.
+	 */
+	public void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * The bounds of a vertex shape, in the layout layer.
+	 */
+	protected Rectangle2D vertexBounds(Point2D p, Shape shape) {
+		p = renderContext.getMultiLayerTransformer().transform(Layer.LAYOUT, p);
+		Rectangle2D b = shape.getBounds2D();
+		b.setRect(b.getX() + p.getX(), b.getY() + p.getY(),
+			  b.getWidth(), b.getHeight());
+		return b;
 	}
 
 }
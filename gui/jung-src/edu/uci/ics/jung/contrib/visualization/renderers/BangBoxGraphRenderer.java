@@ -7,6 +7,7 @@ package edu.uci.ics.jung.contrib.visualization.renderers;
 
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.contrib.visualization.BangBoxGraphRenderContext;
+import edu.uci.ics.jung.visualization.layout.LayoutSpatialIndex;
 import edu.uci.ics.jung.visualization.renderers.Renderer;
 
 /**
@@ -39,5 +40,8 @@ public interface BangBoxGraphRenderer<V, E, B> extends Renderer<V, E>
 
 	void renderBangBox(BangBoxGraphRenderContext<V, E, B> rc, Layout<V, E> layout, B b);
 
+	LayoutSpatialIndex<V, E> getSpatialIndex();
+	void setSpatialIndex(LayoutSpatialIndex<V, E> spatialIndex);
+
 	//void renderBangBoxLabel(BangBoxRenderContext<V, E> rc, Layout<V, E> layout, B b);
 }
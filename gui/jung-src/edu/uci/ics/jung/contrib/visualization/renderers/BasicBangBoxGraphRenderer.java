@@ -57,7 +57,7 @@ public class BasicBangBoxGraphRenderer<V, E, B>
 
 		// paint all the edges
 		try {
-			for (E e : layout.getGraph().getEdges()) {
+			for (E e : getVisibleEdges(renderContext, layout)) {
 
 				renderEdge(
 					renderContext,
@@ -75,7 +75,7 @@ public class BasicBangBoxGraphRenderer<V, E, B>
 
 		// paint all the vertices
 		try {
-			for (V v : layout.getGraph().getVertices()) {
+			for (V v : getVisibleVertices(renderContext, layout)) {
 
 				renderVertex(
 					renderContext,
@@ -0,0 +1,264 @@
+package edu.uci.ics.jung.visualization.layout;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.graph.Graph;
+
+/**
+ * A uniform grid over the layout coordinates of the vertices (and the
+ * bounding boxes of the edges) of a graph, for finding the elements in
+ * a region without looking at all of them.
+ *
+ * The index is rebuilt lazily: call invalidate() whenever the layout or
+ * the graph changes, or moved() when a single vertex has been moved.
+ * The index can be used from several threads.
+ *
+ * Vertices are indexed by their centre, so queries are expanded by a
+ * margin, which should be at least half the size of the largest vertex
+ * (and its label).
+ */
+public class LayoutSpatialIndex<V, E> {
+	// edges spanning more cells than this are always returned
+	private static final int MAX_EDGE_CELLS = 64;
+
+	private final double cellSize;
+	private final double margin;
+
+	private volatile boolean valid = false;
+	private Layout<V, E> layout;
+	private Graph<V, E> graph;
+	private Map<Long, List<V>> vertexCells = new HashMap<Long, List<V>>();
+	private Map<V, Long> vertexKeys = new HashMap<V, Long>();
+	private Map<Long, List<E>> edgeCells = new HashMap<Long, List<E>>();
+	private Map<E, long[]> edgeRanges = new HashMap<E, long[]>();
+	private List<E> longEdges = new ArrayList<E>();
+
+	/**
+	 * @param cellSize  the width and height of each grid cell, in layout
+	 *                  coordinates
+	 * @param margin  how far outside a region to look for vertices
+	 */
+	public LayoutSpatialIndex(double cellSize, double margin) {
+		this.cellSize = cellSize;
+		this.margin = margin;
+	}
+
+	public LayoutSpatialIndex() {
+		this(100.0, 50.0);
+	}
+
+	/**
+	 * Marks the index as out of date, so it will be rebuilt by the next
+	 * query.  This can be called from any thread.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	private int cell(double c) {
+		return (int) Math.floor(c / cellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private static <T> void add(Map<Long, List<T>> cells, long key, T item) {
+		List<T> list = cells.get(key);
+		if (list == null) {
+			list = new ArrayList<T>(4);
+			cells.put(key, list);
+		}
+		list.add(item);
+	}
+
+	private static <T> void remove(Map<Long, List<T>> cells, long key, T item) {
+		List<T> list = cells.get(key);
+		if (list != null) {
+			list.remove(item);
+			if (list.isEmpty()) {
+				cells.remove(key);
+			}
+		}
+	}
+
+	private void rebuild(Layout<V, E> layout) {
+		this.layout = layout;
+		this.graph = layout.getGraph();
+		vertexCells.clear();
+		vertexKeys.clear();
+		edgeCells.clear();
+		edgeRanges.clear();
+		longEdges.clear();
+		// set first, so that an invalidate() during the rebuild is not lost
+		valid = true;
+		try {
+			for (V v : graph.getVertices()) {
+				addVertex(v);
+			}
+			for (E e : graph.getEdges()) {
+				addEdge(e);
+			}
+		} catch (RuntimeException ex) {
+			valid = false;
+			throw ex;
+		}
+	}
+
+	private void addVertex(V v) {
+		Point2D p = layout.transform(v);
+		long k = key(cell(p.getX()), cell(p.getY()));
+		vertexKeys.put(v, k);
+		add(vertexCells, k, v);
+	}
+
+	private void addEdge(E e) {
+		Point2D s = layout.transform(graph.getSource(e));
+		Point2D t = layout.transform(graph.getDest(e));
+		int x0 = cell(Math.min(s.getX(), t.getX()));
+		int x1 = cell(Math.max(s.getX(), t.getX()));
+		int y0 = cell(Math.min(s.getY(), t.getY()));
+		int y1 = cell(Math.max(s.getY(), t.getY()));
+		if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_EDGE_CELLS) {
+			longEdges.add(e);
+			edgeRanges.put(e, null);
+			return;
+		}
+		edgeRanges.put(e, new long[] { key(x0, y0), key(x1, y1) });
+		for (int cx = x0; cx <= x1; ++cx) {
+			for (int cy = y0; cy <= y1; ++cy) {
+				add(edgeCells, key(cx, cy), e);
+			}
+		}
+	}
+
+	private void removeEdge(E e) {
+		if (!edgeRanges.containsKey(e)) {
+			return;
+		}
+		long[] range = edgeRanges.remove(e);
+		if (range == null) {
+			longEdges.remove(e);
+			return;
+		}
+		int x0 = (int) (range[0] >> 32), y0 = (int) range[0];
+		int x1 = (int) (range[1] >> 32), y1 = (int) range[1];
+		for (int cx = x0; cx <= x1; ++cx) {
+			for (int cy = y0; cy <= y1; ++cy) {
+				remove(edgeCells, key(cx, cy), e);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after a single vertex has been moved.
+	 *
+	 * If the index is already out of date, this does nothing.
+	 */
+	public synchronized void moved(V v) {
+		if (!valid || !vertexKeys.containsKey(v) || !graph.containsVertex(v)) {
+			invalidate();
+			return;
+		}
+		remove(vertexCells, vertexKeys.get(v), v);
+		addVertex(v);
+		for (E e : graph.getIncidentEdges(v)) {
+			removeEdge(e);
+			addEdge(e);
+		}
+	}
+
+	private void ensureValid(Layout<V, E> layout) {
+		if (!valid || layout != this.layout || layout.getGraph() != graph) {
+			rebuild(layout);
+		}
+	}
+
+	/**
+	 * The vertices of the layout's graph that may be within the margin
+	 * of the region.
+	 *
+	 * @param region  a rectangle in layout coordinates
+	 */
+	public synchronized Collection<V> getVertices(Layout<V, E> layout, Rectangle2D region) {
+		ensureValid(layout);
+		int x0 = cell(region.getMinX() - margin);
+		int x1 = cell(region.getMaxX() + margin);
+		int y0 = cell(region.getMinY() - margin);
+		int y1 = cell(region.getMaxY() + margin);
+		List<V> result = new ArrayList<V>();
+		if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > vertexCells.size()) {
+			// zoomed out: cheaper to look at every occupied cell
+			for (Map.Entry<Long, List<V>> entry : vertexCells.entrySet()) {
+				long k = entry.getKey();
+				int cx = (int) (k >> 32);
+				int cy = (int) k;
+				if (cx >= x0 && cx <= x1 && cy >= y0 && cy <= y1) {
+					result.addAll(entry.getValue());
+				}
+			}
+		} else {
+			for (int cx = x0; cx <= x1; ++cx) {
+				for (int cy = y0; cy <= y1; ++cy) {
+					List<V> list = vertexCells.get(key(cx, cy));
+					if (list != null) {
+						result.addAll(list);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The edges of the layout's graph that may be within the margin of
+	 * the region.
+	 *
+	 * @param region  a rectangle in layout coordinates
+	 */
+	public synchronized Collection<E> getEdges(Layout<V, E> layout, Rectangle2D region) {
+		ensureValid(layout);
+		int x0 = cell(region.getMinX() - margin);
+		int x1 = cell(region.getMaxX() + margin);
+		int y0 = cell(region.getMinY() - margin);
+		int y1 = cell(region.getMaxY() + margin);
+		Map<E, Boolean> seen = new IdentityHashMap<E, Boolean>();
+		List<E> result = new ArrayList<E>(longEdges);
+		if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > edgeCells.size()) {
+			for (Map.Entry<Long, List<E>> entry : edgeCells.entrySet()) {
+				long k = entry.getKey();
+				int cx = (int) (k >> 32);
+				int cy = (int) k;
+				if (cx >= x0 && cx <= x1 && cy >= y0 && cy <= y1) {
+					for (E e : entry.getValue()) {
+						if (seen.put(e, Boolean.TRUE) == null) {
+							result.add(e);
+						}
+					}
+				}
+			}
+		} else {
+			for (int cx = x0; cx <= x1; ++cx) {
+				for (int cy = y0; cy <= y1; ++cy) {
+					List<E> list = edgeCells.get(key(cx, cy));
+					if (list != null) {
+						for (E e : list) {
+							if (seen.put(e, Boolean.TRUE) == null) {
+								result.add(e);
+							}
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+}
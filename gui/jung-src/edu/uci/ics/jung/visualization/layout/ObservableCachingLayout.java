@@ -90,7 +90,22 @@ public class ObservableCachingLayout<V, E> extends LayoutDecorator<V,E> implemen
 	@Override
     public void setLocation(V v, Point2D location) {
 		super.setLocation(v, location);
-		fireStateChanged();
+		locationMap.remove(v);
+		fireVertexMoved(v);
+	}
+
+	/**
+	 * Tells the listeners that a single vertex has moved, with a
+	 * VertexMovedEvent.
+	 */
+	protected void fireVertexMoved(V v) {
+		ChangeListener[] listeners = changeSupport.getChangeListeners();
+		if (listeners.length > 0) {
+			VertexMovedEvent<V> event = new VertexMovedEvent<V>(this, v);
+			for (ChangeListener l : listeners) {
+				l.stateChanged(event);
+			}
+		}
 	}
 
     public void addChangeListener(ChangeListener l) {
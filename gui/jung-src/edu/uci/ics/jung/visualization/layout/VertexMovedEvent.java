@@ -0,0 +1,21 @@
+package edu.uci.ics.jung.visualization.layout;
+
+import javax.swing.event.ChangeEvent;
+
+/**
+ * The event fired by an ObservableCachingLayout when a single vertex
+ * has been moved with setLocation().
+ */
+public class VertexMovedEvent<V> extends ChangeEvent {
+	private static final long serialVersionUID = 6138422350126451237L;
+	private final V vertex;
+
+	public VertexMovedEvent(Object source, V vertex) {
+		super(source);
+		this.vertex = vertex;
+	}
+
+	public V getVertex() {
+		return vertex;
+	}
+}
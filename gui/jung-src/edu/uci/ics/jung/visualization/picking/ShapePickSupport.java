@@ -33,6 +33,7 @@ import edu.uci.ics.jung.graph.util.Context;
 import edu.uci.ics.jung.graph.util.Pair;
 import edu.uci.ics.jung.visualization.Layer;
 import edu.uci.ics.jung.visualization.VisualizationServer;
+import edu.uci.ics.jung.visualization.layout.LayoutSpatialIndex;
 
 /**
  * A <code>GraphElementAccessor</code> that returns elements whose <code>Shape</code>
@@ -80,6 +81,12 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
      * to <code>CENTERED</code>.
      */
     protected Style style = Style.CENTERED;
+
+    /**
+     * If set, used to find the elements near the pick point, rather
+     * than testing every element.
+     */
+    protected LayoutSpatialIndex<V,E> spatialIndex = null;
     
     /**
      * Creates a <code>ShapePickSupport</code> for the <code>vv</code>
@@ -167,10 +174,11 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
         		new Point2D.Double(x,y));
         x = ip.getX();
         y = ip.getY();
+        Rectangle2D region = layoutRegion(new Rectangle2D.Double(x, y, 0, 0));
 
         while(true) {
             try {
-                for(V v : getFilteredVertices(layout)) {
+                for(V v : getFilteredVertices(layout, region)) {
                 	
                     Shape shape = vv.getRenderContext().getVertexShapeTransformer().transform(v);
                     // get the vertex location
@@ -225,10 +233,11 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
     	
     	// remove the view transform from the rectangle
     	shape = vv.getRenderContext().getMultiLayerTransformer().inverseTransform(Layer.VIEW, shape);
+    	Rectangle2D region = layoutRegion(shape);
 
         while(true) {
             try {
-                for(V v : getFilteredVertices(layout)) {
+                for(V v : getFilteredVertices(layout, region)) {
                     Point2D p = layout.transform(v);
                     if(p == null) continue;
 
@@ -258,11 +267,12 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
         // edgeshape.intersects(pickArea)
         Rectangle2D pickArea = 
             new Rectangle2D.Float((float)x-pickSize/2,(float)y-pickSize/2,pickSize,pickSize);
+        Rectangle2D region = layoutRegion(pickArea);
         E closest = null;
         double minDistance = Double.MAX_VALUE;
         while(true) {
             try {
-                for(E e : getFilteredEdges(layout)) {
+                for(E e : getFilteredEdges(layout, region)) {
 
                     Shape edgeShape = getTransformedEdgeShape(layout, e);
                     if (edgeShape == null)
@@ -352,6 +362,65 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
 		return edgeShape;
 	}
 
+    /**
+     * Maps a shape from view coordinates back to layout coordinates,
+     * for querying the spatial index.
+     *
+     * @return the bounds of the shape in layout coordinates, or null if
+     * there is no spatial index
+     */
+    protected Rectangle2D layoutRegion(Shape shape) {
+        if (spatialIndex == null) {
+            return null;
+        }
+        return vv.getRenderContext().getMultiLayerTransformer()
+            .inverseTransform(Layer.LAYOUT, shape).getBounds2D();
+    }
+
+    /**
+     * Like <code>getFilteredVertices(layout)</code>, but only returns
+     * vertices near <code>region</code> if there is a spatial index.
+     * @param region an area in layout coordinates, or null for everywhere
+     */
+    protected Collection<V> getFilteredVertices(Layout<V,E> layout, Rectangle2D region) {
+    	if(region == null || spatialIndex == null) {
+    		return getFilteredVertices(layout);
+    	}
+    	Collection<V> nearby = spatialIndex.getVertices(layout, region);
+    	if(verticesAreFiltered()) {
+    		Collection<V> filtered = new LinkedHashSet<V>();
+    		for(V v : nearby) {
+    			if(isVertexRendered(Context.<Graph<V,E>,V>getInstance(layout.getGraph(),v))) {
+    				filtered.add(v);
+    			}
+    		}
+    		return filtered;
+    	}
+    	return nearby;
+    }
+
+    /**
+     * Like <code>getFilteredEdges(layout)</code>, but only returns
+     * edges near <code>region</code> if there is a spatial index.
+     * @param region an area in layout coordinates, or null for everywhere
+     */
+    protected Collection<E> getFilteredEdges(Layout<V,E> layout, Rectangle2D region) {
+    	if(region == null || spatialIndex == null) {
+    		return getFilteredEdges(layout);
+    	}
+    	Collection<E> nearby = spatialIndex.getEdges(layout, region);
+    	if(edgesAreFiltered()) {
+    		Collection<E> filtered = new LinkedHashSet<E>();
+    		for(E e : nearby) {
+    			if(isEdgeRendered(Context.<Graph<V,E>,E>getInstance(layout.getGraph(),e))) {
+    				filtered.add(e);
+    			}
+    		}
+    		return filtered;
+    	}
+    	return nearby;
+    }
+
 	/**
 	 * 
 	 * @param layout
@@ -462,6 +531,26 @@ public class ShapePickSupport<V, E> implements GraphElementAccessor<V,E> {
 	 * side, in view coordinates. 
 	 * @return the size of the edge picking area
 	 */
+	/**
+	 * @return the index used to find elements near the pick point,
+	 * or null if every element is tested
+	 */
+	public LayoutSpatialIndex<V, E> getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * Sets the index used to find elements near the pick point.  The
+	 * index must be kept up to date with the layout.  With an index,
+	 * the <code>LOWEST</code> and <code>HIGHEST</code> styles are
+	 * relative to the order the index returns elements in.
+	 *
+	 * @param spatialIndex the index, or null to test every element
+	 */
+	public void setSpatialIndex(LayoutSpatialIndex<V, E> spatialIndex) {
+		this.spatialIndex = spatialIndex;
+	}
+
 	public float getPickSize() {
 		return pickSize;
 	}
@@ -7,10 +7,15 @@
  */
 package edu.uci.ics.jung.visualization.renderers;
 
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
 
 import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.visualization.Layer;
 import edu.uci.ics.jung.visualization.RenderContext;
+import edu.uci.ics.jung.visualization.layout.LayoutSpatialIndex;
 
 /**
  * The default implementation of the Renderer used by the
@@ -28,12 +33,13 @@ public class BasicRenderer<V,E> implements Renderer<V, E> {
     Renderer.VertexLabel<V,E> vertexLabelRenderer = new BasicVertexLabelRenderer<V,E>();
     Renderer.Edge<V,E> edgeRenderer = new BasicEdgeRenderer<V,E>();
     Renderer.EdgeLabel<V,E> edgeLabelRenderer = new BasicEdgeLabelRenderer<V,E>();
+    LayoutSpatialIndex<V,E> spatialIndex = null;
     
 	public void render(RenderContext<V, E> renderContext, Layout<V, E> layout) {
 		
 		// paint all the edges
         try {
-        	for(E e : layout.getGraph().getEdges()) {
+        	for(E e : getVisibleEdges(renderContext, layout)) {
 
 		        renderEdge(
 		                renderContext,
@@ -50,7 +56,7 @@ public class BasicRenderer<V,E> implements Renderer<V, E> {
 		
 		// paint all the vertices
         try {
-        	for(V v : layout.getGraph().getVertices()) {
+        	for(V v : getVisibleVertices(renderContext, layout)) {
 
 		    	renderVertex(
 		                renderContext,
@@ -66,6 +72,44 @@ public class BasicRenderer<V,E> implements Renderer<V, E> {
         }
 	}
 
+    /**
+     * The area being painted, in layout coordinates, or null if the
+     * whole graph should be painted.
+     */
+    protected Rectangle2D getVisibleRegion(RenderContext<V,E> rc) {
+        if (spatialIndex == null || rc.getGraphicsContext() == null) {
+            return null;
+        }
+        // the graphics context already has the view transform applied
+        Shape clip = rc.getGraphicsContext().getClip();
+        if (clip == null) {
+            return null;
+        }
+        return rc.getMultiLayerTransformer().inverseTransform(Layer.LAYOUT, clip).getBounds2D();
+    }
+
+    /**
+     * The edges to paint: all of them, unless there is a spatial index.
+     */
+    protected Collection<E> getVisibleEdges(RenderContext<V,E> rc, Layout<V,E> layout) {
+        Rectangle2D region = getVisibleRegion(rc);
+        if (region == null) {
+            return layout.getGraph().getEdges();
+        }
+        return spatialIndex.getEdges(layout, region);
+    }
+
+    /**
+     * The vertices to paint: all of them, unless there is a spatial index.
+     */
+    protected Collection<V> getVisibleVertices(RenderContext<V,E> rc, Layout<V,E> layout) {
+        Rectangle2D region = getVisibleRegion(rc);
+        if (region == null) {
+            return layout.getGraph().getVertices();
+        }
+        return spatialIndex.getVertices(layout, region);
+    }
+
     public void renderVertex(RenderContext<V,E> rc, Layout<V,E> layout, V v) {
         vertexRenderer.paintVertex(rc, layout, v);
     }
@@ -90,6 +134,22 @@ public class BasicRenderer<V,E> implements Renderer<V, E> {
     	this.edgeRenderer = r;
     }
 
+	/**
+	 * @return the index used to find the elements that need painting,
+	 * or null if everything is painted
+	 */
+	public LayoutSpatialIndex<V, E> getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * @param spatialIndex the index used to find the elements that need
+	 * painting, or null to paint everything
+	 */
+	public void setSpatialIndex(LayoutSpatialIndex<V, E> spatialIndex) {
+		this.spatialIndex = spatialIndex;
+	}
+
 	/**
 	 * @return the edgeLabelRenderer
 	 */
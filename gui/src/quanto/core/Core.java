@@ -3,7 +3,7 @@ package quanto.core;
 import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,6 +26,7 @@ import quanto.core.data.BangBox;
 import quanto.core.data.CoreGraph;
 import quanto.core.data.CoreObject;
 import quanto.core.data.Edge;
+import quanto.core.data.RasterIconCache;
 import quanto.core.data.Rule;
 import quanto.core.data.Vertex;
 import quanto.core.data.VertexType;
@@ -34,7 +35,7 @@ import quanto.core.xml.AttachedRewriteListFragmentHandler;
 import quanto.core.xml.EdgeFragmentHandler;
 import quanto.core.xml.EdgeFragmentHandler.EdgeData;
 import quanto.core.xml.FragmentHandler;
-import quanto.core.xml.GraphFragmentHandler;
+import quanto.core.xml.GraphDiffFragmentHandler;
 import quanto.core.xml.SAXFragmentAdaptor;
 import quanto.core.xml.VertexFragmentHandler;
 
@@ -87,9 +88,10 @@ public class Core {
     private CoreTheory activeTheory;
     private Ruleset ruleset;
 
-    private <T> T parseXml(String xml, FragmentHandler<? extends T> handler) throws CoreException {
+    private <T> T parseXml(InputStream xml, FragmentHandler<? extends T> handler) throws CoreException {
         try {
-            InputSource source = new InputSource(new StringReader(xml));
+            InputSource source = new InputSource(xml);
+            source.setEncoding("UTF-8");
             XMLReader reader = XMLReaderFactory.createXMLReader();
             SAXFragmentAdaptor<T> adaptor = new SAXFragmentAdaptor<T>(handler);
             reader.setContentHandler(adaptor);
@@ -102,14 +104,15 @@ public class Core {
             logger.log(Level.SEVERE, "Error when parsing XML", ex);
             throw new CoreCommunicationException("Failed to parse XML", ex);
         } catch (IOException ex) {
-            // this should never happen!
-            logger.log(Level.SEVERE, "Error when reading from a String", ex);
-            throw new CoreCommunicationException("Failed to read XML from String", ex);
+            // this should never happen: the response is already in memory
+            logger.log(Level.SEVERE, "Error when reading the core's response", ex);
+            throw new CoreCommunicationException("Failed to read XML from the core's response", ex);
         }
     }
 
     public Core(String implementedTheoryName, ArrayList<VertexType> vertices) throws CoreException {
         this.talker = new ProtocolManager();
+        talker.setPipelined(true);
         talker.startCore();
         talker.changeTheory(implementedTheoryName);
         this.activeTheory = new CoreTheory();
@@ -123,6 +126,8 @@ public class Core {
 
     public void updateCoreTheory(String implementedTheoryName, ArrayList<VertexType> theoryVertices) throws CoreException {
         talker.changeTheory(implementedTheoryName);
+        // the old vertex icons will not be drawn again
+        RasterIconCache.getShared().clear();
         this.activeTheory.removeAllVertices();
         for (VertexType v : theoryVertices) {
             this.activeTheory.addVertexType(v);
@@ -178,8 +183,19 @@ public class Core {
     }
 
     public void updateGraph(CoreGraph graph) throws CoreException {
-        String xml = talker.exportGraphAsXml(graph.getCoreName());
-        parseXml(xml, new GraphFragmentHandler(activeTheory, graph));
+        InputStream xml = talker.exportGraphDiffAsXml(graph.getCoreName(),
+                graph.getCoreSyncVersion());
+        parseXml(xml, new GraphDiffFragmentHandler(activeTheory, graph));
+    }
+
+    /*
+     * For when we have made the same change to our copy of the graph as
+     * we asked the core to make: the core's last graph_diff no longer
+     * describes what we have, so the next update must be a full one.
+     */
+    private void graphChangedLocally(CoreGraph graph) {
+        graph.setCoreSyncVersion(0);
+        graph.fireStateChanged();
     }
 
     public enum RepresentationType {
@@ -240,10 +256,10 @@ public class Core {
     public Vertex addVertex(CoreGraph graph, String vertexType)
             throws CoreException {
         assertCoreGraph(graph);
-        String xml = talker.addVertex(graph.getCoreName(), vertexType);
+        InputStream xml = talker.addVertex(graph.getCoreName(), vertexType);
         Vertex v = this.<Vertex>parseXml(xml, new VertexFragmentHandler(activeTheory));
         graph.addVertex(v);
-        graph.fireStateChanged();    
+        graphChangedLocally(graph);
         return v;
     }
 
@@ -256,7 +272,7 @@ public class Core {
         assertCoreGraph(graph);
         talker.setVertexData(graph.getCoreName(), v.getCoreName(), angle);
         v.getData().setValue(angle);
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public void deleteVertices(CoreGraph graph, Collection<Vertex> vertices)
@@ -266,13 +282,13 @@ public class Core {
         for (Vertex v : vertices) {
             graph.removeVertex(v);
         }
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public Edge addEdge(CoreGraph graph, boolean directed, Vertex source, Vertex target)
             throws CoreException {
         assertCoreGraph(graph);
-        String xml = talker.addEdge(graph.getCoreName(),
+        InputStream xml = talker.addEdge(graph.getCoreName(),
                 "unit",
                 directed,
                 source.getCoreName(),
@@ -286,7 +302,7 @@ public class Core {
             throw new CoreException("Target name from core did not match what we sent");
         }
         graph.addEdge(e.edge, source, target);
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
         return e.edge;
     }
 
@@ -297,7 +313,7 @@ public class Core {
         for (Edge e : edges) {
             graph.removeEdge(e);
         }
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public BangBox addBangBox(CoreGraph graph, Collection<Vertex> vertices)
@@ -305,7 +321,7 @@ public class Core {
         assertCoreGraph(graph);
         BangBox bb = new BangBox(talker.addBangBox(graph.getCoreName(), names(vertices)));
         graph.addBangBox(bb, vertices);
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
         return bb;
     }
 
@@ -323,7 +339,7 @@ public class Core {
         for (BangBox bb : bboxen) {
             graph.removeBangBox(bb);
         }
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public void killBangBoxes(CoreGraph graph, Collection<BangBox> bboxen)
@@ -337,7 +353,7 @@ public class Core {
             }
             graph.removeBangBox(bb);
         }
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public BangBox mergeBangBoxes(CoreGraph graph, Collection<BangBox> bboxen)
@@ -353,7 +369,7 @@ public class Core {
             graph.removeBangBox(bb);
         }
         graph.addBangBox(newbb, contents);
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
         return newbb;
     }
 
@@ -364,12 +380,7 @@ public class Core {
                 bbox.getCoreName());
         updateGraph(graph);
         graph.fireStateChanged();
-        for (BangBox bb : graph.getBangBoxes()) {
-            if (bb.getCoreName().equals(name)) {
-                return bb;
-            }
-        }
-        return null;
+        return graph.getBangBox(name);
     }
 
     public void loadRuleset(File location) throws CoreException, IOException {
@@ -416,22 +427,39 @@ public class Core {
     }
 
     public void fastNormalise(CoreGraph graph) throws CoreException {
-        boolean didRewrites = false;
-        try {
-            int rwCount = talker.attachOneRewrite(graph.getCoreName());
-            while (rwCount > 0) {
-                talker.applyAttachedRewrite(graph.getCoreName(), 0);
-                didRewrites = true;
-                rwCount = talker.attachOneRewrite(graph.getCoreName());
-            }
-        } catch (CoreException e) {
-            if (!e.getMessage().contains("No more rewrites.")) {
-                throw e;
-            }
-        }
-        if (didRewrites) {
+        normalise(graph, 0, 0);
+    }
+
+    /**
+     * Rewrites a graph in the core until no more rules apply, or until a
+     * limit is reached.
+     *
+     * To report progress, call this repeatedly with a small maxSteps: the
+     * graph is normal once fewer than maxSteps rewrites were done.
+     *
+     * @param maxSteps  the most rewrites to do, or 0 for no limit
+     * @param timeoutMillis  how long the core should spend, or 0 for no limit
+     * @return the number of rewrites done
+     */
+    public int normalise(CoreGraph graph, int maxSteps, int timeoutMillis)
+            throws CoreException {
+        int count = normaliseInCore(graph, maxSteps, timeoutMillis);
+        if (count > 0) {
             updateGraph(graph);
         }
+        return count;
+    }
+
+    /**
+     * As normalise(), but only rewrites the core's copy of the graph;
+     * call updateGraph() to bring ours up to date.  This lets a worker
+     * thread do the rewriting while the graph is shown on the event
+     * thread.
+     */
+    public int normaliseInCore(CoreGraph graph, int maxSteps, int timeoutMillis)
+            throws CoreException {
+        assertCoreGraph(graph);
+        return talker.normalise(graph.getCoreName(), maxSteps, timeoutMillis);
     }
 
     public void cutSubgraph(CoreGraph graph, Collection<Vertex> vertices)
@@ -443,7 +471,7 @@ public class Core {
         for (Vertex v : vertices) {
             graph.removeVertex(v);
         }
-        graph.fireStateChanged();
+        graphChangedLocally(graph);
     }
 
     public void copySubgraph(CoreGraph graph, Collection<Vertex> vertices)
@@ -463,6 +491,16 @@ public class Core {
         return talker.attachRewrites(graph.getCoreName(), names(vertices));
     }
 
+    /**
+     * Attaches one rewrite to a graph, matching anywhere in the graph.
+     *
+     * @return whether any rule matched
+     */
+    public boolean attachOneRewrite(CoreGraph graph)
+            throws CoreException {
+        return talker.attachOneRewrite(graph.getCoreName()) > 0;
+    }
+
     public boolean attachOneRewrite(CoreGraph graph, Collection<Vertex> vertices)
             throws CoreException {
         return talker.attachOneRewrite(graph.getCoreName(), names(vertices)) > 0;
@@ -470,7 +508,7 @@ public class Core {
 
     public List<AttachedRewrite<CoreGraph>> getAttachedRewrites(CoreGraph graph)
             throws CoreException {
-        String xml = talker.listAttachedRewrites(graph.getCoreName());
+        InputStream xml = talker.listAttachedRewrites(graph.getCoreName());
         AttachedRewriteListFragmentHandler handler =
                 new AttachedRewriteListFragmentHandler(activeTheory, graph);
         return this.<List<AttachedRewrite<CoreGraph>>>parseXml(xml, handler);
@@ -0,0 +1,209 @@
+package quanto.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import quanto.core.data.VertexType;
+
+/**
+ * A set of core processes, all running the same theory and ruleset,
+ * for working on many independent graphs at once.
+ *
+ * Each core is only used by one task at a time.  Graphs live in the
+ * core that created them, so a task should load, work on and forget
+ * its own graphs, using the core it is given.
+ */
+public class CorePool {
+
+    private final static Logger logger = Logger.getLogger("quanto.core");
+
+    /**
+     * Some work to do with one of the cores in the pool
+     */
+    public interface Task<T> {
+
+        T run(Core core) throws CoreException;
+    }
+
+    private final List<Core> cores;
+    private final BlockingQueue<Core> idle;
+    private final ExecutorService executor;
+
+    /**
+     * Starts one core per available processor.
+     */
+    public CorePool(String implementedTheoryName, ArrayList<VertexType> vertices)
+            throws CoreException {
+        this(implementedTheoryName, vertices,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public CorePool(String implementedTheoryName, ArrayList<VertexType> vertices,
+            int size) throws CoreException {
+        if (size < 1) {
+            throw new IllegalArgumentException("A pool needs at least one core");
+        }
+        cores = new ArrayList<Core>(size);
+        try {
+            for (int i = 0; i < size; ++i) {
+                cores.add(new Core(implementedTheoryName, vertices));
+            }
+        } catch (CoreException ex) {
+            killCores();
+            throw ex;
+        }
+        idle = new LinkedBlockingQueue<Core>(cores);
+        executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+
+            private int count = 0;
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Core pool worker " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int size() {
+        return cores.size();
+    }
+
+    public List<Core> getCores() {
+        return Collections.unmodifiableList(cores);
+    }
+
+    private Core acquire() throws CoreException {
+        try {
+            return idle.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while waiting for a core", ex);
+        }
+    }
+
+    private void release(Core core) {
+        idle.add(core);
+    }
+
+    /**
+     * Loads a ruleset into every core in the pool.
+     *
+     * This waits for any running tasks to finish.
+     */
+    public void loadRuleset(byte[] ruleset) throws CoreException, IOException {
+        List<Core> all = new ArrayList<Core>(cores.size());
+        try {
+            while (all.size() < cores.size()) {
+                all.add(acquire());
+            }
+            for (Core core : all) {
+                core.loadRuleset(ruleset);
+            }
+        } finally {
+            for (Core core : all) {
+                release(core);
+            }
+        }
+    }
+
+    /**
+     * Loads a ruleset file into every core in the pool.
+     *
+     * This waits for any running tasks to finish.
+     */
+    public void loadRuleset(File location) throws CoreException, IOException {
+        List<Core> all = new ArrayList<Core>(cores.size());
+        try {
+            while (all.size() < cores.size()) {
+                all.add(acquire());
+            }
+            for (Core core : all) {
+                core.loadRuleset(location);
+            }
+        } finally {
+            for (Core core : all) {
+                release(core);
+            }
+        }
+    }
+
+    /**
+     * Copies the ruleset of another core (such as the one used by the GUI)
+     * into every core in the pool.
+     */
+    public void loadRuleset(Core source) throws CoreException, IOException {
+        loadRuleset(source.getRulesetEncoded());
+    }
+
+    /**
+     * Runs a task on the calling thread, as soon as a core is free.
+     */
+    public <T> T run(Task<T> task) throws CoreException {
+        Core core = acquire();
+        try {
+            return task.run(core);
+        } finally {
+            release(core);
+        }
+    }
+
+    /**
+     * Runs a task in the background, as soon as a core is free.
+     *
+     * If the task fails, the CoreException will be the cause of the
+     * ExecutionException thrown by the future.
+     */
+    public <T> Future<T> submit(final Task<T> task) {
+        return executor.submit(new Callable<T>() {
+
+            public T call() throws CoreException {
+                return run(task);
+            }
+        });
+    }
+
+    /**
+     * Submits several tasks, which will be spread over all the cores.
+     *
+     * @return futures for the tasks, in the same order as tasks
+     */
+    public <T> List<Future<T>> submitAll(Collection<? extends Task<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Task<T> task : tasks) {
+            futures.add(submit(task));
+        }
+        return futures;
+    }
+
+    private void killCores() {
+        for (Core core : cores) {
+            core.getTalker().killCore();
+        }
+    }
+
+    /**
+     * Abandons any tasks that have not started and shuts down the cores.
+     */
+    public void shutdown() {
+        List<Runnable> abandoned = executor.shutdownNow();
+        if (!abandoned.isEmpty()) {
+            logger.log(Level.FINE, "Abandoned {0} core pool tasks",
+                    abandoned.size());
+        }
+        killCores();
+    }
+}
@@ -2,7 +2,10 @@ package quanto.core.data;
 
 
 import edu.uci.ics.jung.contrib.graph.DirectedSparseBangBoxMultigraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,6 +28,7 @@ implements CoreObject, ChangeEventSupport {
 	
 	private String fileName = null; // defined if this graph is backed by a file
 	private boolean saved = true; // true if this graph has been modified since last saved
+	private int coreSyncVersion = 0; // the last graph_diff version applied, or 0
 
 	public CoreGraph(String name) {
 		this.name = name;
@@ -40,23 +44,141 @@ implements CoreObject, ChangeEventSupport {
 		this(null);
 	}
 
+	/*
+	 * Indexes of the graph's elements by name.  Names never change once
+	 * an element is in a graph, so these only need updating when
+	 * elements are added and removed.
+	 */
+	private final Map<String,Vertex> vertexIndex = new HashMap<String, Vertex>();
+	private final Map<String,Edge> edgeIndex = new HashMap<String, Edge>();
+	private final Map<String,BangBox> bangBoxIndex = new HashMap<String, BangBox>();
+
+	@Override
+	public boolean addVertex(Vertex vertex) {
+		if (super.addVertex(vertex)) {
+			vertexIndex.put(vertex.getCoreName(), vertex);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean removeVertex(Vertex vertex) {
+		if (!containsVertex(vertex)) {
+			return false;
+		}
+		// the incident edges go with the vertex
+		for (Edge e : getIncidentEdges(vertex)) {
+			edgeIndex.remove(e.getCoreName());
+		}
+		super.removeVertex(vertex);
+		vertexIndex.remove(vertex.getCoreName());
+		return true;
+	}
+
+	@Override
+	public boolean addEdge(Edge edge, Pair<? extends Vertex> endpoints, EdgeType edgeType) {
+		if (super.addEdge(edge, endpoints, edgeType)) {
+			edgeIndex.put(edge.getCoreName(), edge);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean removeEdge(Edge edge) {
+		if (super.removeEdge(edge)) {
+			edgeIndex.remove(edge.getCoreName());
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean addBangBox(BangBox bangbox, Collection<? extends Vertex> vertices) {
+		if (super.addBangBox(bangbox, vertices)) {
+			bangBoxIndex.put(bangbox.getCoreName(), bangbox);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean removeBangBox(BangBox bangbox) {
+		if (super.removeBangBox(bangbox)) {
+			bangBoxIndex.remove(bangbox.getCoreName());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the vertex called name, or null
+	 */
+	public Vertex getVertex(String name) {
+		return vertexIndex.get(name);
+	}
+
+	/**
+	 * @return the edge called name, or null
+	 */
+	public Edge getEdge(String name) {
+		return edgeIndex.get(name);
+	}
+
+	/**
+	 * @return the !-box called name, or null
+	 */
+	public BangBox getBangBox(String name) {
+		return bangBoxIndex.get(name);
+	}
+
+	/**
+	 * @return a copy of the map from names to vertices
+	 */
 	public Map<String,Vertex> getVertexMap() {
-		Map<String, Vertex> verts =
-			new HashMap<String, Vertex>();
-		for (Vertex v : getVertices()) {
-			verts.put(v.getCoreName(), v);
+		return new HashMap<String, Vertex>(vertexIndex);
+	}
+
+	/**
+	 * @return a copy of the map from names to edges
+	 */
+	public Map<String,Edge> getEdgeMap() {
+		return new HashMap<String, Edge>(edgeIndex);
+	}
+
+	/**
+	 * @return a copy of the map from names to !-boxes
+	 */
+	public Map<String,BangBox> getBangBoxMap() {
+		return new HashMap<String, BangBox>(bangBoxIndex);
+	}
+
+	/**
+	 * The vertices of this graph with no vertex of the same name
+	 * in another graph.
+	 */
+	public List<Vertex> getVerticesNotIn(CoreGraph graph) {
+		List<Vertex> verts = new ArrayList<Vertex>();
+		synchronized (this) {
+			for (Vertex v : getVertices()) {
+				if (graph.getVertex(v.getCoreName()) == null) {
+					verts.add(v);
+				}
+			}
 		}
 		return verts;
 	}
-	
-	public List<Vertex> getSubgraphVertices(CoreGraph graph) {
+
+	/**
+	 * The vertices of this graph with a vertex of the same name
+	 * in another graph.
+	 */
+	public List<Vertex> getVerticesIn(CoreGraph graph) {
 		List<Vertex> verts = new ArrayList<Vertex>();
 		synchronized (this) {
-			Map<String,Vertex> vmap = getVertexMap();
-			//Vertices which are not in the new graph
-			//Will be highlighted
 			for (Vertex v : getVertices()) {
-				if (graph.getVertexMap().get(v.getCoreName()) == null){
+				if (graph.getVertex(v.getCoreName()) != null) {
 					verts.add(v);
 				}
 			}
@@ -64,6 +186,14 @@ implements CoreObject, ChangeEventSupport {
 		return verts;
 	}
 
+	/**
+	 * The vertices that are not in the new graph, such as those matched
+	 * by a rewrite whose result is graph.
+	 */
+	public List<Vertex> getSubgraphVertices(CoreGraph graph) {
+		return getVerticesNotIn(graph);
+	}
+
 	public String getCoreName() {
 		return name;
 	}
@@ -88,6 +218,20 @@ implements CoreObject, ChangeEventSupport {
 		this.saved = saved;
 	}
 
+	/**
+	 * The version of the graph_diff last applied to this graph.
+	 *
+	 * @return the version, or 0 if the graph may not match any
+	 *         version the core knows about
+	 */
+	public int getCoreSyncVersion() {
+		return coreSyncVersion;
+	}
+
+	public void setCoreSyncVersion(int coreSyncVersion) {
+		this.coreSyncVersion = coreSyncVersion;
+	}
+
 	public void addChangeListener(ChangeListener l) {
 		changeListeners.add(l);
 	}
@@ -0,0 +1,173 @@
+package quanto.core.data;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.Icon;
+
+/**
+ * A cache of bitmaps of icons, so that an icon drawn many times at the
+ * same zoom level is only rendered once.
+ *
+ * Bitmaps are keyed by the icon, the zoom level (rounded to a multiple of
+ * 2^(1/32)) and whether antialiasing is on.  The least recently used
+ * bitmaps are dropped when the cache gets too large.
+ */
+public class RasterIconCache {
+	private static final int STEPS_PER_OCTAVE = 32;
+	private static final RasterIconCache shared = new RasterIconCache(32L * 1024 * 1024);
+
+	public static RasterIconCache getShared() {
+		return shared;
+	}
+
+	private static final class Key {
+		final Icon icon;
+		final int zoomStep;
+		final boolean antiAlias;
+
+		Key(Icon icon, int zoomStep, boolean antiAlias) {
+			this.icon = icon;
+			this.zoomStep = zoomStep;
+			this.antiAlias = antiAlias;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return icon == other.icon
+				&& zoomStep == other.zoomStep
+				&& antiAlias == other.antiAlias;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(icon);
+			hash = 31 * hash + zoomStep;
+			hash = 31 * hash + (antiAlias ? 1 : 0);
+			return hash;
+		}
+	}
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private final LinkedHashMap<Key, BufferedImage> images =
+		new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+
+	/**
+	 * @param maxBytes  roughly how much memory the bitmaps may use
+	 */
+	public RasterIconCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	private static long sizeOf(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+
+	/**
+	 * Drops all the bitmaps; call this when the icons change.
+	 */
+	public synchronized void clear() {
+		images.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Drops the bitmaps of a single icon.
+	 */
+	public synchronized void invalidate(Icon icon) {
+		Iterator<Map.Entry<Key, BufferedImage>> it = images.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, BufferedImage> entry = it.next();
+			if (entry.getKey().icon == icon) {
+				bytes -= sizeOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized BufferedImage get(Key key) {
+		return images.get(key);
+	}
+
+	private synchronized void put(Key key, BufferedImage image) {
+		BufferedImage old = images.put(key, image);
+		if (old != null)
+			bytes -= sizeOf(old);
+		bytes += sizeOf(image);
+		Iterator<BufferedImage> it = images.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			BufferedImage eldest = it.next();
+			if (eldest == image)
+				break;
+			bytes -= sizeOf(eldest);
+			it.remove();
+		}
+	}
+
+	/**
+	 * Paints the icon as Icon.paintIcon() would, using a cached bitmap if
+	 * the graphics is only scaled and translated.
+	 *
+	 * This should only be used for drawing to the screen or to images,
+	 * since the result is not vector graphics.
+	 *
+	 * @param antiAlias  whether the icon paints itself with antialiasing
+	 */
+	public void paintIcon(Icon icon, boolean antiAlias, Component c, Graphics g, int x, int y) {
+		if (!(g instanceof Graphics2D)) {
+			icon.paintIcon(c, g, x, y);
+			return;
+		}
+		Graphics2D g2 = (Graphics2D) g;
+		AffineTransform transform = g2.getTransform();
+		int allowed = AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE;
+		if ((transform.getType() & ~allowed) != 0) {
+			icon.paintIcon(c, g, x, y);
+			return;
+		}
+
+		double scale = transform.getScaleX();
+		int zoomStep = (int) Math.round(Math.log(scale) / Math.log(2) * STEPS_PER_OCTAVE);
+		double stepScale = Math.pow(2, (double) zoomStep / STEPS_PER_OCTAVE);
+		int width = (int) Math.ceil(icon.getIconWidth() * stepScale);
+		int height = (int) Math.ceil(icon.getIconHeight() * stepScale);
+		if (width <= 0 || height <= 0 || 16L * width * height > maxBytes) {
+			// too big to be worth caching
+			icon.paintIcon(c, g, x, y);
+			return;
+		}
+
+		Key key = new Key(icon, zoomStep, antiAlias);
+		BufferedImage image = get(key);
+		if (image == null) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D ig = image.createGraphics();
+			ig.scale(stepScale, stepScale);
+			icon.paintIcon(c, ig, 0, 0);
+			ig.dispose();
+			put(key, image);
+		}
+
+		// draw in device space, so the bitmap lands on whole pixels
+		Point2D origin = transform.transform(new Point2D.Double(x, y), null);
+		double ratio = scale / stepScale;
+		g2.setTransform(new AffineTransform());
+		g2.drawImage(image,
+			(int) Math.round(origin.getX()),
+			(int) Math.round(origin.getY()),
+			(int) Math.round(width * ratio),
+			(int) Math.round(height * ratio),
+			null);
+		g2.setTransform(transform);
+	}
+}
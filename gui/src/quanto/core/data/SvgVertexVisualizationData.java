@@ -8,6 +8,8 @@ import uk.me.randomguy3.svg.SVGDiagram;
 import uk.me.randomguy3.svg.ShapeElement;
 import uk.me.randomguy3.svg.components.SVGIcon;
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
 import java.io.PrintWriter;
@@ -29,6 +31,20 @@ public class SvgVertexVisualizationData implements VertexVisualizationData {
 	Shape shape = null;
 	ShapeElement boundsElement;
 	Rectangle2D diagramBounds;
+	Icon rasterIcon = new Icon() {
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			RasterIconCache.getShared().paintIcon(
+				cachedIcon, cachedIcon.getAntiAlias(), c, g, x, y);
+		}
+
+		public int getIconWidth() {
+			return cachedIcon.getIconWidth();
+		}
+
+		public int getIconHeight() {
+			return cachedIcon.getIconHeight();
+		}
+	};
 
 	public SvgVertexVisualizationData(URL svgFile, Color labelColor) {
 		this.labelColor = labelColor;
@@ -54,7 +70,11 @@ public class SvgVertexVisualizationData implements VertexVisualizationData {
 	public Shape getShape() {
 		if (boundsElement == null) 
 			return diagramBounds;
-		return boundsElement.getShape();
+		// the diagram never changes, so neither does the shape; keeping
+		// it means every vertex of this type shares one shape object
+		if (shape == null)
+			shape = boundsElement.getShape();
+		return shape;
 	}
 
 	public Color getFillColour() {
@@ -68,5 +88,9 @@ public class SvgVertexVisualizationData implements VertexVisualizationData {
 	public Icon getIcon() {
 		return cachedIcon;
 	}
+
+	public Icon getRasterIcon() {
+		return rasterIcon;
+	}
 	
 }
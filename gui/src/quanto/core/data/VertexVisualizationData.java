@@ -8,4 +8,9 @@ public interface VertexVisualizationData {
 	Shape getShape();
 	Color getLabelColour();
 	Icon  getIcon();
+	/**
+	 * Paints the same as getIcon(), but may use a cached bitmap, so is
+	 * only suitable for drawing on the screen.
+	 */
+	Icon  getRasterIcon();
 }
@@ -4,7 +4,6 @@
  */
 package quanto.core.protocol;
 
-import java.io.CharArrayWriter;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,62 +11,86 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Logs the data passing through it.
+ *
+ * The data is only captured while the logger accepts TRACE_LEVEL
+ * messages; this is checked at the end of each message, so when
+ * tracing is off the stream costs almost nothing.
  *
  * @author alemer
  */
 class LoggingInputStream extends FilterInputStream
 {
+    static final Level TRACE_LEVEL = Level.FINEST;
+
     @SuppressWarnings("NonConstantLogger")
     private final Logger logger;
-    private final CharArrayWriter logStream = new CharArrayWriter(256);
+    private final TraceBuffer trace = new TraceBuffer();
+    private boolean tracing;
+    private long byteCount = 0;
 
     public LoggingInputStream(InputStream internal, String logArea) {
         super(internal);
         logger = Logger.getLogger(logArea);
+        tracing = logger.isLoggable(TRACE_LEVEL);
+    }
+
+    private void endMessage() {
+        trace.reset();
+        tracing = logger.isLoggable(TRACE_LEVEL);
     }
 
     public void writeLog(Level level) {
-        if (logger.isLoggable(level)) {
-            logger.log(level, "{0}",
-                    logStream.toString().replace('\u001b', '\u00a4'));
+        if (tracing && logger.isLoggable(level)) {
+            logger.log(level, "{0}", trace.toString());
         }
-        logStream.reset();
+        endMessage();
     }
 
     public void writeLog(Level level, String message) {
         if (logger.isLoggable(level)) {
-            logger.log(level, "{0}: \"{1}\"",
-                    new Object[] {
-                        message,
-                        logStream.toString().replace('\u001b', '\u00a4')
-                    });
+            if (tracing) {
+                logger.log(level, "{0}: \"{1}\"",
+                        new Object[] {
+                            message,
+                            trace.toString()
+                        });
+            } else {
+                logger.log(level, message);
+            }
         }
-        logStream.reset();
+        endMessage();
+    }
+
+    /**
+     * The number of bytes read so far
+     */
+    public long getByteCount() {
+        return byteCount;
     }
 
     @Override
     public int read() throws IOException {
         int ch = in.read();
         if (ch != -1)
-            logStream.append((char)ch);
+            ++byteCount;
+        if (tracing && ch != -1)
+            trace.append(ch);
         return ch;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        int count = in.read(b);
-        for (int i = 0; i < count; ++i) {
-            logStream.append((char)b[i]);
-        }
-        return count;
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         int count = in.read(b, off, len);
-        for (int i = off; i < (off + count); ++i) {
-            logStream.append((char)b[i]);
-        }
+        if (count > 0)
+            byteCount += count;
+        if (tracing && count > 0)
+            trace.append(b, off, count);
         return count;
     }
 }
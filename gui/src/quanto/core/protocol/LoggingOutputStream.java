@@ -4,7 +4,6 @@
  */
 package quanto.core.protocol;
 
-import java.io.CharArrayWriter;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -12,58 +11,82 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Logs the data passing through it.
+ *
+ * The data is only captured while the logger accepts TRACE_LEVEL
+ * messages; this is checked at the end of each message, so when
+ * tracing is off the stream costs almost nothing.
  *
  * @author alemer
  */
 class LoggingOutputStream extends FilterOutputStream
 {
+    static final Level TRACE_LEVEL = Level.FINEST;
+
     @SuppressWarnings("NonConstantLogger")
     private final Logger logger;
-    private final CharArrayWriter logStream = new CharArrayWriter(256);
+    private final TraceBuffer trace = new TraceBuffer();
+    private boolean tracing;
+    private long byteCount = 0;
 
     public LoggingOutputStream(OutputStream internal, String logArea) {
         super(internal);
         logger = Logger.getLogger(logArea);
+        tracing = logger.isLoggable(TRACE_LEVEL);
+    }
+
+    private void endMessage() {
+        trace.reset();
+        tracing = logger.isLoggable(TRACE_LEVEL);
     }
 
     public void writeLog(Level level) {
-        if (logger.isLoggable(level)) {
-            logger.log(level, "{0}",
-                    logStream.toString().replace('\u001b', '\u00a4'));
+        if (tracing && logger.isLoggable(level)) {
+            logger.log(level, "{0}", trace.toString());
         }
-        logStream.reset();
+        endMessage();
     }
 
     public void writeLog(Level level, String message) {
         if (logger.isLoggable(level)) {
-            logger.log(level, "{0}: {1}",
-                    new Object[] {
-                        message,
-                        logStream.toString().replace('\u001b', '\u00a4')
-                    });
+            if (tracing) {
+                logger.log(level, "{0}: {1}",
+                        new Object[] {
+                            message,
+                            trace.toString()
+                        });
+            } else {
+                logger.log(level, message);
+            }
         }
-        logStream.reset();
+        endMessage();
+    }
+
+    /**
+     * The number of bytes written so far
+     */
+    public long getByteCount() {
+        return byteCount;
     }
 
     @Override
     public void write(int b) throws IOException {
-        logStream.append((char)b);
+        ++byteCount;
+        if (tracing)
+            trace.append(b);
         out.write(b);
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        for (int i = 0; i < b.length; ++i) {
-            logStream.append((char)b[i]);
-        }
-        out.write(b);
+        write(b, 0, b.length);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        for (int i = 0; i < b.length; ++i) {
-            logStream.append((char)b[i]);
-        }
+        byteCount += len;
+        if (tracing)
+            trace.append(b, off, len);
         out.write(b, off, len);
     }
 }
@@ -1,6 +1,9 @@
 package quanto.core.protocol;
 
 import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -62,6 +65,36 @@ public class Point2DUserDataSerialiazer implements UserDataSerializer<Point2D> {
 		
 		return p;
 	}
+	public void setVerticesUserData(ProtocolManager talker, CoreGraph g, Map<String, Point2D> data) {
+		Map<String, String> dataStrings = new HashMap<String, String>(data.size());
+		for (Map.Entry<String, Point2D> entry : data.entrySet()) {
+			String dataString = dataToString(entry.getValue());
+			if (dataString != null)
+				dataStrings.put(entry.getKey(), dataString);
+		}
+		if (dataStrings.isEmpty()) return;
+		try {
+			talker.setVerticesUserData(g.getCoreName(), this.dataTag, dataStrings);
+		} catch (CoreException e) {
+			logger.log(Level.FINE, "Could not set positions on vertices", e);
+		}
+	}
+
+	public Map<String, Point2D> getVerticesUserData(ProtocolManager talker, CoreGraph g, Collection<String> vertexNames) {
+		Map<String, Point2D> points = new HashMap<String, Point2D>();
+		try {
+			Map<String, String> dataStrings = talker.verticesUserData(g.getCoreName(),
+					vertexNames, this.dataTag);
+			for (Map.Entry<String, String> entry : dataStrings.entrySet()) {
+				points.put(entry.getKey(), stringToData(entry.getValue()));
+			}
+		} catch (CoreException e) {
+			logger.log(Level.FINE, "Could not get positions on vertices", e);
+		}
+
+		return points;
+	}
+
 	/* Irrelevant for this type */
 	public Point2D getGraphUserData(ProtocolManager talker, CoreGraph g) {return null;}
 	public void setGraphUserData(ProtocolManager talker, CoreGraph g, Point2D data) {}
@@ -12,6 +12,8 @@ import quanto.core.CoreCommunicationException;
  */
 public class ProtocolException extends CoreCommunicationException {
 
+	private String requestId = null;
+
 	public ProtocolException() {
 		super("Invalid data was received from the core");
 	}
@@ -28,4 +30,20 @@ public class ProtocolException extends CoreCommunicationException {
 		super(string, thrwbl);
 	}
 
+	/**
+	 * The request whose response was invalid, if that is known.
+	 *
+	 * If it is, the data that was received after that response can
+	 * still be read.
+	 *
+	 * @return a request ID, or null
+	 */
+	public String getRequestId() {
+		return requestId;
+	}
+
+	void setRequestId(String requestId) {
+		this.requestId = requestId;
+	}
+
 }
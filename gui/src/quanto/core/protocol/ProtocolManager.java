@@ -5,8 +5,13 @@
 package quanto.core.protocol;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import quanto.core.CoreCommunicationException;
@@ -24,14 +29,69 @@ public class ProtocolManager {
     private final static Logger logger = Logger.getLogger("quanto.core.protocol");
 
     public static String quantoCoreExecutable = "quanto-core";
+    /**
+     * If set, the protocol metrics of each core are appended to this
+     * file when it is killed (or when the JVM exits, if that is sooner)
+     */
+    public static String metricsDumpFile = null;
     private RequestWriter writer;
     private ProtocolReader reader;
     private Process backend;
-    private int nextRequestId = 1;
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private boolean pipelined = false;
+    // read into a local before use, as killCore() may clear it at any time
+    private volatile ResponseDispatcher dispatcher;
+    // the request each thread is waiting for, in pipelined mode
+    private final ThreadLocal<ResponseFuture<Response>> lastRequest =
+            new ThreadLocal<ResponseFuture<Response>>();
+    // the ID of the request each thread last wrote, in pipelined mode
+    private final ThreadLocal<String> lastRequestId = new ThreadLocal<String>();
+    private final ProtocolMetrics metrics = new ProtocolMetrics();
+    private Thread metricsDumper;
 
     public ProtocolManager() throws CoreException {
     }
 
+    /**
+     * The timings of the requests sent to the core.
+     *
+     * These are registered with JMX while the core is running.
+     */
+    public ProtocolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether requests are pipelined.
+     *
+     * @see #setPipelined(boolean)
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Sets whether to pipeline requests to the core.
+     *
+     * In pipelined mode, responses are read by a separate thread and
+     * matched to their requests by request ID.  This allows the
+     * asynchronous methods (those ending in "Async") to be used to
+     * keep many requests in flight at once.  The synchronous methods
+     * behave exactly as they do in non-pipelined mode, except that they
+     * may also be called from several threads at once: each thread
+     * waits only for the responses to its own requests.
+     *
+     * This must be set before the core is started.
+     *
+     * @param pipelined  whether to pipeline requests
+     */
+    public void setPipelined(boolean pipelined) {
+        if (backend != null) {
+            throw new IllegalStateException("The core is already running");
+        }
+        this.pipelined = pipelined;
+    }
+
     public void startCore() throws CoreException {
         try {
             ProcessBuilder pb = new ProcessBuilder(quantoCoreExecutable, "--protocol");
@@ -45,6 +105,7 @@ public class ProtocolManager {
 
             reader = new ProtocolReader(backend.getInputStream());
             writer = new RequestWriter(backend.getOutputStream());
+            writer.setMetrics(metrics);
         } catch (IOException e) {
             logger.log(Level.SEVERE,
                     "Could not execute \"" + quantoCoreExecutable + "\": "
@@ -69,9 +130,45 @@ public class ProtocolManager {
                     "The core failed to initiate the protocol correctly",
                     e);
         }
+
+        metrics.register();
+        if (metricsDumpFile != null) {
+            metricsDumper = new Thread("Protocol metrics dump") {
+
+                @Override
+                public void run() {
+                    dumpMetrics();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(metricsDumper);
+        }
+
+        if (pipelined) {
+            ResponseDispatcher d = new ResponseDispatcher(backend);
+            d.start();
+            dispatcher = d;
+        }
+    }
+
+    private void dumpMetrics() {
+        try {
+            metrics.dumpToFile(metricsDumpFile);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not write the protocol metrics to "
+                    + metricsDumpFile, ex);
+        }
     }
 
     private CoreCommunicationException writeFailure(Throwable e) {
+        writer.abandonMessage();
+        // the core will never answer the request
+        ResponseDispatcher d = dispatcher;
+        String requestId = lastRequestId.get();
+        if (d != null && requestId != null) {
+            d.forget(requestId);
+        }
+        lastRequestId.remove();
+        lastRequest.remove();
         try {
             logger.log(Level.SEVERE,
                     "Tried to write to core process, but it has terminated (exit value: {0})",
@@ -86,6 +183,10 @@ public class ProtocolManager {
     }
 
     private CoreCommunicationException readFailure(Throwable e) {
+        return readFailure(backend, e);
+    }
+
+    private static CoreCommunicationException readFailure(Process backend, Throwable e) {
         try {
             logger.log(Level.SEVERE, "Core process terminated with exit value {0}",
                     backend.exitValue());
@@ -117,12 +218,172 @@ public class ProtocolManager {
         }
     }
 
+    /**
+     * Reads responses from the core in pipelined mode, and hands them
+     * to the requests that are waiting for them.
+     */
+    private class ResponseDispatcher extends Thread {
+
+        private final Process process;
+        private final Map<String, ResponseFuture<?>> pending =
+                new HashMap<String, ResponseFuture<?>>();
+        private CoreException failure;
+        // set by killCore(), so that the reader failing is not an error
+        private volatile boolean stopping = false;
+
+        public ResponseDispatcher(Process process) {
+            super("Core response dispatcher");
+            setDaemon(true);
+            this.process = process;
+        }
+
+        public synchronized void expect(String requestId, ResponseFuture<?> future) {
+            if (failure != null) {
+                future.fail(failure);
+            } else {
+                pending.put(requestId, future);
+            }
+        }
+
+        public synchronized void forget(String requestId) {
+            pending.remove(requestId);
+        }
+
+        /**
+         * Must be called before the reader is closed.
+         */
+        public void stopDispatching() {
+            stopping = true;
+        }
+
+        private void failRequest(String requestId, CoreException ex) {
+            ResponseFuture<?> future;
+            synchronized (this) {
+                future = pending.remove(requestId);
+            }
+            metrics.requestAbandoned(requestId);
+            if (future != null) {
+                future.fail(ex);
+            }
+        }
+
+        /*
+         * For when no more responses can be read: fails every request
+         * that is waiting, and any that are made later.
+         */
+        private synchronized void failAll(CoreException ex) {
+            failure = ex;
+            for (Map.Entry<String, ResponseFuture<?>> entry : pending.entrySet()) {
+                metrics.requestAbandoned(entry.getKey());
+                entry.getValue().fail(ex);
+            }
+            pending.clear();
+        }
+
+        @Override
+        public void run() {
+            try {
+                dispatch();
+            } catch (RuntimeException ex) {
+                // a bug, but the waiting requests must still be woken
+                logger.log(Level.SEVERE,
+                        "Failed to handle a response from the core", ex);
+                failAll(new CoreCommunicationException(
+                        "Failed to handle a response from the core", ex));
+            }
+        }
+
+        private void dispatch() {
+            while (true) {
+                Response resp;
+                try {
+                    resp = reader.parseNextResponse();
+                    metrics.responseReceived(resp);
+                } catch (ProtocolException ex) {
+                    if (stopping) {
+                        failAll(new CoreTerminatedException("The core has been shut down", ex));
+                        return;
+                    }
+                    if (ex.getRequestId() != null) {
+                        // the reader has skipped to the next response
+                        failRequest(ex.getRequestId(), ex);
+                        continue;
+                    }
+                    // we cannot tell where the next response starts
+                    logger.log(Level.SEVERE,
+                            "Could not parse a response from the core", ex);
+                    failAll(ex);
+                    return;
+                } catch (IOException ex) {
+                    if (stopping) {
+                        failAll(new CoreTerminatedException("The core has been shut down", ex));
+                    } else {
+                        failAll(readFailure(process, ex));
+                    }
+                    return;
+                }
+
+                ResponseFuture<?> future;
+                synchronized (this) {
+                    future = pending.remove(resp.getRequestId());
+                }
+                if (future == null) {
+                    logger.log(Level.WARNING,
+                            "Discarding response to unknown request {0}",
+                            resp.getRequestId());
+                } else {
+                    future.complete(resp);
+                }
+            }
+        }
+    }
+
+    private static class RawResponseFuture extends ResponseFuture<Response> {
+
+        public RawResponseFuture() {
+            super(null);
+        }
+
+        @Override
+        protected Response convert(Response resp) {
+            return resp;
+        }
+    }
+
+    private static class OkResponseFuture extends ResponseFuture<Object> {
+
+        public OkResponseFuture() {
+            super(Response.MessageType.Ok);
+        }
+
+        @Override
+        protected Object convert(Response resp) {
+            return null;
+        }
+    }
+
+    private static class StringResponseFuture extends ResponseFuture<String> {
+
+        public StringResponseFuture(Response.MessageType expectedType) {
+            super(expectedType);
+        }
+
+        @Override
+        protected String convert(Response resp) {
+            return resp.getStringData();
+        }
+    }
+
     /**
      * Quits the core process, and releases associated resources
      */
     public void killCore() {
         if (backend != null) {
             logger.log(Level.FINEST, "Shutting down the core process");
+            ResponseDispatcher d = dispatcher;
+            if (d != null) {
+                d.stopDispatching();
+            }
             try {
                 reader.close();
                 writer.close();
@@ -131,33 +392,83 @@ public class ProtocolManager {
                 logger.log(Level.WARNING, "Failed to close communication channels to the core");
             }
             backend = null;
+            dispatcher = null;
+            if (metricsDumper != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(metricsDumper);
+                    dumpMetrics();
+                } catch (IllegalStateException ex) {
+                    // already shutting down, so the hook will dump them
+                }
+                metricsDumper = null;
+            }
+            metrics.unregister();
         }
     }
 
     private String generateRequestId() {
-        return Integer.toString(nextRequestId++);
+        String requestId = Integer.toString(nextRequestId.getAndIncrement());
+        ResponseDispatcher d = dispatcher;
+        if (d != null) {
+            ResponseFuture<Response> future = new RawResponseFuture();
+            lastRequest.set(future);
+            lastRequestId.set(requestId);
+            d.expect(requestId, future);
+        }
+        return requestId;
     }
 
-    private CommandException errorResponseToException(String code, String message) {
+    private String generateRequestId(ResponseFuture<?> future) {
+        String requestId = Integer.toString(nextRequestId.getAndIncrement());
+        ResponseDispatcher d = dispatcher;
+        if (d == null) {
+            throw new IllegalStateException("Requests are not being pipelined");
+        }
+        lastRequestId.set(requestId);
+        d.expect(requestId, future);
+        return requestId;
+    }
+
+    private void assertPipelined() {
+        if (backend == null) {
+            throw new IllegalStateException("The core is not running");
+        }
+        if (dispatcher == null) {
+            throw new IllegalStateException("Requests are not being pipelined");
+        }
+    }
+
+    private static CommandException errorResponseToException(String code, String message) {
         if (code.equals("BADARGS"))
             return new CommandArgumentsException(message);
         else
             return new CommandException(code, message);
     }
 
+    static Response checkResponse(Response resp, Response.MessageType expectedType) throws CoreException {
+        if (resp.isError()) {
+            throw errorResponseToException(resp.getErrorCode(), resp.getErrorMessage());
+        } else if (resp.getMessageType() == Response.MessageType.UnknownRequest) {
+            throw new UnknownCommandException(resp.getRequestCode());
+        } else if (resp.getMessageType() == Response.MessageType.UnknownResponse) {
+            throw new ProtocolException("Got an unknown response message type");
+        } else if (resp.getMessageType() != expectedType) {
+            throw new ProtocolException("Expected a " + expectedType.toString() + " response, but got a " + resp.getMessageType().toString() + " response");
+        }
+        return resp;
+    }
+
     private Response getResponse(Response.MessageType expectedType) throws CoreException {
+        ResponseFuture<Response> request = lastRequest.get();
+        if (request != null) {
+            lastRequest.remove();
+            lastRequestId.remove();
+            return checkResponse(request.getResult(), expectedType);
+        }
         try {
             Response resp = reader.parseNextResponse();
-            if (resp.isError()) {
-                throw errorResponseToException(resp.getErrorCode(), resp.getErrorMessage());
-            } else if (resp.getMessageType() == Response.MessageType.UnknownRequest) {
-                throw new UnknownCommandException(resp.getRequestCode());
-            } else if (resp.getMessageType() == Response.MessageType.UnknownResponse) {
-                throw new ProtocolException("Got an unknown response message type");
-            } else if (resp.getMessageType() != expectedType) {
-                throw new ProtocolException("Expected a " + expectedType.toString() + " response, but got a " + resp.getMessageType().toString() + " response");
-            }
-            return resp;
+            metrics.responseReceived(resp);
+            return checkResponse(resp, expectedType);
         } catch (IOException ex) {
             throw readFailure(ex);
         }
@@ -179,8 +490,8 @@ public class ProtocolManager {
         return getResponse(Response.MessageType.RawData).getByteData();
     }
 
-    private String getXmlResponse() throws CoreException {
-        return utf8ToString(getResponse(Response.MessageType.Xml).getByteData());
+    private InputStream getXmlResponse() throws CoreException {
+        return getResponse(Response.MessageType.Xml).getDataStream();
     }
 
     private int getCountResponse() throws CoreException {
@@ -487,7 +798,7 @@ public class ProtocolManager {
         return utf8ToString(getRawDataResponse());
     }
 
-    public String exportGraphAsXml(String graph) throws CoreException {
+    public InputStream exportGraphAsXml(String graph) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
@@ -504,6 +815,56 @@ public class ProtocolManager {
         return getXmlResponse();
     }
 
+    /**
+     * Gets the changes to a graph since it was last exported by this method.
+     *
+     * @param graph  the name of the graph
+     * @param sinceVersion  the version attribute of the last diff applied
+     *                      for this graph, or 0 to get the whole graph
+     * @return a graph_diff XML element, encoded as UTF-8
+     */
+    public InputStream exportGraphDiffAsXml(String graph, int sinceVersion) throws CoreException {
+        if (backend == null) {
+            throw new IllegalStateException("The core is not running");
+        }
+
+        try {
+            writer.addHeader("GED", generateRequestId());
+            writer.addStringArg(graph);
+            writer.addIntArg(sinceVersion);
+            writer.closeMessage();
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        return getXmlResponse();
+    }
+
+    /**
+     * Asynchronous version of exportGraphAsXml(String).
+     *
+     * Requires pipelined mode.
+     *
+     * @see #setPipelined(boolean)
+     */
+    public ResponseFuture<String> exportGraphAsXmlAsync(String graph) throws CoreException {
+        assertPipelined();
+
+        ResponseFuture<String> future = new StringResponseFuture(Response.MessageType.Xml);
+        try {
+            synchronized (writer) {
+                writer.addHeader("GE", generateRequestId(future));
+                writer.addStringArg(graph);
+                writer.addStringArg("xml");
+                writer.closeMessage();
+            }
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        return future;
+    }
+
     public String[] listVertices(String graph) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
@@ -569,7 +930,7 @@ public class ProtocolManager {
         return getNameListResponse();
     }
 
-    public String vertexDataAsXml(String graph, String vertex) throws CoreException {
+    public InputStream vertexDataAsXml(String graph, String vertex) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
@@ -605,7 +966,70 @@ public class ProtocolManager {
         return utf8ToString(getRawDataResponse());
     }
 
-    public String edgeDataAsXml(String graph, String edge) throws CoreException {
+    /**
+     * Asynchronous version of vertexUserData(String, String, String).
+     *
+     * Requires pipelined mode.
+     *
+     * @see #setPipelined(boolean)
+     */
+    public ResponseFuture<String> vertexUserDataAsync(String graph, String vertex, String dataName) throws CoreException {
+        assertPipelined();
+
+        ResponseFuture<String> future = new StringResponseFuture(Response.MessageType.RawData);
+        try {
+            synchronized (writer) {
+                writer.addHeader("GVVU", generateRequestId(future));
+                writer.addStringArg(graph);
+                writer.addStringArg(vertex);
+                writer.addStringArg(dataName);
+                writer.closeMessage();
+            }
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * Gets the user data attached to several vertices in one request.
+     *
+     * @param graph  the graph the vertices are in
+     * @param vertices  the vertices to get data for, or an empty collection
+     *                  for all the vertices in the graph
+     * @param dataName  the name the data is stored under
+     * @return a map from vertex names to data; vertices with no data
+     *         under dataName will not be present
+     * @throws CoreException
+     */
+    public Map<String, String> verticesUserData(String graph, Collection<String> vertices, String dataName) throws CoreException {
+        if (backend == null) {
+            throw new IllegalStateException("The core is not running");
+        }
+
+        try {
+            writer.addHeader("GVVUM", generateRequestId());
+            writer.addStringArg(graph);
+            writer.addStringArg(dataName);
+            writer.addStringListArg(vertices);
+            writer.closeMessage();
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        String[] entries = getNameListResponse();
+        if (entries.length % 2 != 0) {
+            throw new ProtocolException("Expected pairs of vertex names and data");
+        }
+        Map<String, String> result = new HashMap<String, String>(entries.length);
+        for (int i = 0; i < entries.length; i += 2) {
+            result.put(entries[i], entries[i + 1]);
+        }
+        return result;
+    }
+
+    public InputStream edgeDataAsXml(String graph, String edge) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
@@ -741,7 +1165,7 @@ public class ProtocolManager {
         getOkResponse();
     }
     
-    public String addVertex(String graph, String vertexType) throws CoreException {
+    public InputStream addVertex(String graph, String vertexType) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
@@ -831,7 +1255,69 @@ public class ProtocolManager {
         getOkResponse();
     }
 
-    public String addEdge(String graph, String edgeType, boolean directed, String sourceVertex, String targetVertex) throws CoreException {
+    /**
+     * Asynchronous version of setVertexUserData(String, String, String, String).
+     *
+     * Requires pipelined mode.
+     *
+     * @see #setPipelined(boolean)
+     */
+    public ResponseFuture<?> setVertexUserDataAsync(String graph, String vertex, String dataName, String data) throws CoreException {
+        assertPipelined();
+
+        ResponseFuture<?> future = new OkResponseFuture();
+        try {
+            synchronized (writer) {
+                writer.addHeader("GMVU", generateRequestId(future));
+                writer.addStringArg(graph);
+                writer.addStringArg(vertex);
+                writer.addStringArg(dataName);
+                writer.addDataChunkArg(data);
+                writer.closeMessage();
+            }
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * Sets the user data of several vertices in one request.
+     *
+     * This is a single change as far as the core's undo history is
+     * concerned.
+     *
+     * @param graph  the graph the vertices are in
+     * @param dataName  the name to store the data under
+     * @param data  a map from vertex names to data
+     * @throws CoreException
+     */
+    public void setVerticesUserData(String graph, String dataName, Map<String, String> data) throws CoreException {
+        if (backend == null) {
+            throw new IllegalStateException("The core is not running");
+        }
+
+        Collection<String> entries = new ArrayList<String>(data.size() * 2);
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            entries.add(entry.getKey());
+            entries.add(entry.getValue());
+        }
+
+        try {
+            writer.addHeader("GMVUM", generateRequestId());
+            writer.addStringArg(graph);
+            writer.addStringArg(dataName);
+            writer.addStringListArg(entries);
+            writer.closeMessage();
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        getOkResponse();
+    }
+
+    public InputStream addEdge(String graph, String edgeType, boolean directed, String sourceVertex, String targetVertex) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
@@ -1459,7 +1945,33 @@ public class ProtocolManager {
         getOkResponse();
     }
 
-    public String listAttachedRewrites(String graph) throws CoreException {
+    /**
+     * Rewrites a graph with the active rules until no more rules apply.
+     *
+     * @param graph  the graph to normalise
+     * @param maxSteps  the most rewrites to do, or 0 for no limit
+     * @param timeoutMillis  how long to spend rewriting, or 0 for no limit
+     * @return the number of rewrites done
+     */
+    public int normalise(String graph, int maxSteps, int timeoutMillis) throws CoreException {
+        if (backend == null) {
+            throw new IllegalStateException("The core is not running");
+        }
+
+        try {
+            writer.addHeader("WN", generateRequestId());
+            writer.addStringArg(graph);
+            writer.addIntArg(maxSteps);
+            writer.addIntArg(timeoutMillis);
+            writer.closeMessage();
+        } catch (IOException ex) {
+            throw writeFailure(ex);
+        }
+
+        return getCountResponse();
+    }
+
+    public InputStream listAttachedRewrites(String graph) throws CoreException {
         if (backend == null) {
             throw new IllegalStateException("The core is not running");
         }
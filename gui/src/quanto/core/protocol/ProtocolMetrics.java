@@ -0,0 +1,548 @@
+package quanto.core.protocol;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Timings and sizes of the requests sent to one core, grouped by the
+ * request's code (GE, GX, ...).
+ *
+ * For each code, this keeps histograms of:
+ * <ul>
+ * <li>the time taken to write the request</li>
+ * <li>the time from the request being sent to the first byte of the
+ *     response arriving (the time spent waiting for the core)</li>
+ * <li>the time taken to read and parse the rest of the response</li>
+ * <li>the sizes of the request and the response, in bytes</li>
+ * </ul>
+ *
+ * The metrics can be read through JMX (see register()) or written out
+ * as a table with dump().
+ */
+public class ProtocolMetrics {
+
+    private final static Logger logger = Logger.getLogger("quanto.core.protocol");
+    private static final String DOMAIN = "quanto.core";
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    /**
+     * The JMX view of all the commands sent to a core
+     */
+    public interface ProtocolMetricsMBean {
+
+        /** The codes of the commands that have been sent */
+        String[] getCommands();
+
+        long getRequestCount();
+
+        int getRequestsInFlight();
+
+        /** The table written by dump() */
+        String getSummary();
+
+        void dumpToFile(String path) throws IOException;
+
+        void reset();
+    }
+
+    /**
+     * The JMX view of one command; times are in microseconds
+     */
+    public interface CommandMetricsMBean {
+
+        long getCount();
+
+        double getMeanWriteMicros();
+
+        double getP99WriteMicros();
+
+        double getMeanWaitMicros();
+
+        double getP50WaitMicros();
+
+        double getP99WaitMicros();
+
+        double getMaxWaitMicros();
+
+        double getTotalWaitMillis();
+
+        double getMeanParseMicros();
+
+        double getP99ParseMicros();
+
+        double getMeanRequestBytes();
+
+        double getMeanResponseBytes();
+
+        long getTotalResponseBytes();
+    }
+
+    /**
+     * A histogram of non-negative values, with eight buckets for each
+     * power of two, so percentiles are accurate to within 12.5%.
+     */
+    public static class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BITS = 3;
+        private final long[] buckets = new long[SUB_BUCKETS * 62];
+        private long count = 0;
+        private long sum = 0;
+        private long max = 0;
+
+        private static int bucketFor(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            ++buckets[bucketFor(value)];
+            ++count;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        public void reset() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param fraction  between 0 and 1
+         * @return a value that at least that fraction of the recorded
+         *         values are no greater than
+         */
+        public long getPercentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private class CommandMetrics implements CommandMetricsMBean {
+
+        final Histogram writeNanos = new Histogram();
+        final Histogram waitNanos = new Histogram();
+        final Histogram parseNanos = new Histogram();
+        final Histogram requestBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+
+        public long getCount() {
+            synchronized (ProtocolMetrics.this) {
+                return requestBytes.getCount();
+            }
+        }
+
+        public double getMeanWriteMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return writeNanos.getMean() / 1000.0;
+            }
+        }
+
+        public double getP99WriteMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return writeNanos.getPercentile(0.99) / 1000.0;
+            }
+        }
+
+        public double getMeanWaitMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return waitNanos.getMean() / 1000.0;
+            }
+        }
+
+        public double getP50WaitMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return waitNanos.getPercentile(0.5) / 1000.0;
+            }
+        }
+
+        public double getP99WaitMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return waitNanos.getPercentile(0.99) / 1000.0;
+            }
+        }
+
+        public double getMaxWaitMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return waitNanos.getMax() / 1000.0;
+            }
+        }
+
+        public double getTotalWaitMillis() {
+            synchronized (ProtocolMetrics.this) {
+                return waitNanos.getSum() / 1000000.0;
+            }
+        }
+
+        public double getMeanParseMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return parseNanos.getMean() / 1000.0;
+            }
+        }
+
+        public double getP99ParseMicros() {
+            synchronized (ProtocolMetrics.this) {
+                return parseNanos.getPercentile(0.99) / 1000.0;
+            }
+        }
+
+        public double getMeanRequestBytes() {
+            synchronized (ProtocolMetrics.this) {
+                return requestBytes.getMean();
+            }
+        }
+
+        public double getMeanResponseBytes() {
+            synchronized (ProtocolMetrics.this) {
+                return responseBytes.getMean();
+            }
+        }
+
+        public long getTotalResponseBytes() {
+            synchronized (ProtocolMetrics.this) {
+                return responseBytes.getSum();
+            }
+        }
+    }
+
+    private class Bean implements ProtocolMetricsMBean {
+
+        public String[] getCommands() {
+            return ProtocolMetrics.this.getCommands();
+        }
+
+        public long getRequestCount() {
+            return ProtocolMetrics.this.getRequestCount();
+        }
+
+        public int getRequestsInFlight() {
+            return ProtocolMetrics.this.getRequestsInFlight();
+        }
+
+        public String getSummary() {
+            return ProtocolMetrics.this.getSummary();
+        }
+
+        public void dumpToFile(String path) throws IOException {
+            ProtocolMetrics.this.dumpToFile(path);
+        }
+
+        public void reset() {
+            ProtocolMetrics.this.reset();
+        }
+    }
+
+    private static class InFlight {
+
+        final String code;
+        boolean written = false;
+        long sentNanos;
+        // in pipelined mode, the response can be parsed before the
+        // writer has finished flushing the request
+        Response earlyResponse;
+
+        InFlight(String code) {
+            this.code = code;
+        }
+    }
+
+    private final String name = "core" + nextId.getAndIncrement();
+    private final Map<String, CommandMetrics> commands = new TreeMap<String, CommandMetrics>();
+    private final Map<String, InFlight> inFlight = new HashMap<String, InFlight>();
+    private long requestCount = 0;
+    private MBeanServer server;
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    /**
+     * A name for the core, unique within this JVM
+     */
+    public String getName() {
+        return name;
+    }
+
+    private ObjectName objectName(String command) throws JMException {
+        String n = DOMAIN + ":type=ProtocolMetrics,name=" + name;
+        if (command != null) {
+            n += ",command=" + ObjectName.quote(command);
+        }
+        return new ObjectName(n);
+    }
+
+    private void registerBean(Object bean, Class<?> iface, String command) {
+        try {
+            @SuppressWarnings("unchecked")
+            StandardMBean mbean = new StandardMBean(bean, (Class<Object>) iface);
+            ObjectName on = objectName(command);
+            server.registerMBean(mbean, on);
+            registered.add(on);
+        } catch (JMException ex) {
+            logger.log(Level.WARNING, "Could not register the protocol metrics with JMX", ex);
+        }
+    }
+
+    private CommandMetrics metricsFor(String code) {
+        CommandMetrics m = commands.get(code);
+        if (m == null) {
+            m = new CommandMetrics();
+            commands.put(code, m);
+            if (server != null) {
+                registerBean(m, CommandMetricsMBean.class, code);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Makes the metrics visible through the platform MBean server, as
+     * quanto.core:type=ProtocolMetrics,name=coreN (and one bean for each
+     * command, with an extra command=CODE key).
+     */
+    public synchronized void register() {
+        if (server != null) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        registerBean(new Bean(), ProtocolMetricsMBean.class, null);
+        for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+            registerBean(entry.getValue(), CommandMetricsMBean.class, entry.getKey());
+        }
+    }
+
+    public synchronized void unregister() {
+        if (server == null) {
+            return;
+        }
+        for (ObjectName on : registered) {
+            try {
+                server.unregisterMBean(on);
+            } catch (JMException ex) {
+                logger.log(Level.FINE, "Could not unregister " + on, ex);
+            }
+        }
+        registered.clear();
+        server = null;
+        // the core has gone, so nothing more will be heard of these
+        inFlight.clear();
+    }
+
+    /**
+     * Called when the writer starts on a request.
+     */
+    synchronized void requestStarted(String requestId, String code) {
+        inFlight.put(requestId, new InFlight(code));
+    }
+
+    /**
+     * Called once a request has been sent to the core.
+     */
+    synchronized void requestWritten(String requestId,
+            long startNanos, long endNanos, long bytes) {
+        InFlight request = inFlight.get(requestId);
+        if (request == null) {
+            return;
+        }
+        CommandMetrics m = metricsFor(request.code);
+        m.writeNanos.record(endNanos - startNanos);
+        m.requestBytes.record(bytes);
+        ++requestCount;
+        request.written = true;
+        request.sentNanos = endNanos;
+        if (request.earlyResponse != null) {
+            inFlight.remove(requestId);
+            recordResponse(m, request, request.earlyResponse);
+        }
+    }
+
+    /**
+     * Called when no response to a request will be recorded, because it
+     * could not be written or its response could not be read.
+     */
+    synchronized void requestAbandoned(String requestId) {
+        inFlight.remove(requestId);
+    }
+
+    /**
+     * Called once a response has been parsed.
+     */
+    synchronized void responseReceived(Response response) {
+        InFlight request = inFlight.get(response.getRequestId());
+        if (request == null) {
+            return;
+        }
+        if (!request.written) {
+            request.earlyResponse = response;
+            return;
+        }
+        inFlight.remove(response.getRequestId());
+        recordResponse(metricsFor(request.code), request, response);
+    }
+
+    private void recordResponse(CommandMetrics m, InFlight request, Response response) {
+        m.waitNanos.record(response.getReceivedNanos() - request.sentNanos);
+        m.parseNanos.record(response.getParsedNanos() - response.getReceivedNanos());
+        m.responseBytes.record(response.getByteCount());
+    }
+
+    public synchronized String[] getCommands() {
+        return commands.keySet().toArray(new String[commands.size()]);
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized int getRequestsInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * The metrics for one command code, or null if it has not been sent
+     */
+    public synchronized CommandMetricsMBean getCommandMetrics(String code) {
+        return commands.get(code);
+    }
+
+    public synchronized void reset() {
+        for (CommandMetrics m : commands.values()) {
+            m.writeNanos.reset();
+            m.waitNanos.reset();
+            m.parseNanos.reset();
+            m.requestBytes.reset();
+            m.responseBytes.reset();
+        }
+        requestCount = 0;
+    }
+
+    private static String micros(double nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    /**
+     * Writes a table of the metrics, with the commands that kept us
+     * waiting longest in total first.
+     */
+    public synchronized void dump(Writer out) {
+        PrintWriter pw = new PrintWriter(out);
+        pw.println(String.format("Protocol metrics for %1$s at %2$tF %2$tT (%3$d requests)",
+                name, new Date(), requestCount));
+        pw.println(String.format("%-6s %8s %10s %10s | %10s %10s %10s %10s %10s | %10s %10s | %10s %10s %12s",
+                "code", "count", "write", "p99",
+                "wait", "p50", "p99", "max", "total ms",
+                "parse", "p99",
+                "req B", "resp B", "total resp B"));
+        List<Map.Entry<String, CommandMetrics>> entries =
+                new ArrayList<Map.Entry<String, CommandMetrics>>(commands.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, CommandMetrics>>() {
+
+            public int compare(Map.Entry<String, CommandMetrics> a, Map.Entry<String, CommandMetrics> b) {
+                long x = a.getValue().waitNanos.getSum();
+                long y = b.getValue().waitNanos.getSum();
+                return x < y ? 1 : (x > y ? -1 : 0);
+            }
+        });
+        for (Map.Entry<String, CommandMetrics> entry : entries) {
+            CommandMetrics m = entry.getValue();
+            pw.println(String.format("%-6s %8d %10s %10s | %10s %10s %10s %10s %10.1f | %10s %10s | %10.0f %10.0f %12d",
+                    entry.getKey(),
+                    m.requestBytes.getCount(),
+                    micros(m.writeNanos.getMean()),
+                    micros(m.writeNanos.getPercentile(0.99)),
+                    micros(m.waitNanos.getMean()),
+                    micros(m.waitNanos.getPercentile(0.5)),
+                    micros(m.waitNanos.getPercentile(0.99)),
+                    micros(m.waitNanos.getMax()),
+                    m.waitNanos.getSum() / 1000000.0,
+                    micros(m.parseNanos.getMean()),
+                    micros(m.parseNanos.getPercentile(0.99)),
+                    m.requestBytes.getMean(),
+                    m.responseBytes.getMean(),
+                    m.responseBytes.getSum()));
+        }
+        pw.println("(times in microseconds unless stated)");
+        pw.flush();
+    }
+
+    public String getSummary() {
+        StringWriter out = new StringWriter();
+        dump(out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the table written by dump() to a file.
+     */
+    public void dumpToFile(String path) throws IOException {
+        // several cores may share a file
+        synchronized (ProtocolMetrics.class) {
+            Writer out = new FileWriter(path, true);
+            try {
+                dump(out);
+                out.write(System.getProperty("line.separator"));
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
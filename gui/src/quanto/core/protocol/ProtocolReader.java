@@ -5,35 +5,87 @@
 package quanto.core.protocol;
 
 import java.util.logging.Logger;
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 import java.util.logging.Level;
 import static quanto.core.protocol.Utils.*;
 
 /**
+ * Parses responses from the core.
+ *
+ * Input is read in large chunks into a buffer owned by the reader, and
+ * the protocol is parsed straight out of that buffer.  Strings are
+ * collected in a reusable token buffer (so escaped ESCs can be dropped
+ * as we go), and data chunks are read directly into an array of the
+ * advertised size.
  *
  * @author alex
  */
 public class ProtocolReader {
     private static final char ESC = '\u001b';
+    private static final int BUFFER_SIZE = 8192;
     private final static Logger logger = Logger.getLogger("quanto.core.protocol");
 
     private LoggingInputStream input;
     private String version;
+    // set by close(), which may be called while another thread is reading
+    private volatile boolean closed = false;
+    // data that has been read from input, but not yet parsed,
+    // is buffer[pos] to buffer[limit-1]
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    // the result of readToEscape() is token[0] to token[tokenLength-1]
+    private byte[] token = new byte[64];
+    private int tokenLength = 0;
 
     public ProtocolReader(InputStream input) {
-        this.input = new LoggingInputStream(
-                new BufferedInputStream(input), "quanto.core.protocol.stream");
+        this.input = new LoggingInputStream(input, "quanto.core.protocol.stream");
     }
 
     public void close() throws IOException {
+        closed = true;
         input.close();
     }
 
+    /**
+     * Whether close() has been called.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Makes sure at least count bytes are buffered.
+     *
+     * @return false if the end of the stream was reached first
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - pos >= count)
+            return true;
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < count) {
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read == -1)
+                return false;
+            limit += read;
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (!fill(1))
+            return -1;
+        return buffer[pos++] & 0xff;
+    }
+
     private void eatEsc() throws ProtocolException, IOException {
-        int gotCh = input.read();
+        int gotCh = read();
         if (gotCh != ESC) {
             if (gotCh == -1)
                 throw new ProtocolException("Expected ESC from core, got EOF");
@@ -45,7 +97,7 @@ public class ProtocolReader {
     }
 
     private void eatChar(char ch) throws ProtocolException, IOException {
-        int gotCh = input.read();
+        int gotCh = read();
         if (gotCh != ch) {
             if (gotCh == -1)
                 throw new ProtocolException("Expected " + ch + ", got EOF");
@@ -66,75 +118,79 @@ public class ProtocolReader {
         int length = readIntToEscape();
         eatEscChar('|');
 
-        byte[] buffer = new byte[length];
-        int pos = 0;
-        while (pos < buffer.length) {
-            pos += input.read(buffer, pos, buffer.length - pos);
+        byte[] data = new byte[length];
+        int filled = Math.min(length, limit - pos);
+        System.arraycopy(buffer, pos, data, 0, filled);
+        pos += filled;
+        while (filled < length) {
+            int read = input.read(data, filled, length - filled);
+            if (read == -1)
+                throw new EOFException("Core closed the stream in the middle of a data chunk");
+            filled += read;
         }
 
         eatEscChar(']');
-        return buffer;
-    }
-
-    // I'm almost tempted to use a List<Byte> - Java makes this
-    // painful to do efficiently
-    private byte[] readToEscape() throws ProtocolException, IOException {
-        byte[] result = null;
-        byte[] buffer = new byte[50];
-        int escPos = -1;
-        while (escPos == -1) {
-            input.mark(buffer.length + 1);
-            int count = input.read(buffer);
-            for (int i = 0; i < count; ++i) {
-                if (buffer[i] == ESC) {
-                    byte next;
-                    if (i + 1 < count)
-                        next = buffer[i + 1];
-                    else
-                        next = (byte)input.read();
-                    if (next == ESC) {
-                        // escaped ESC
-                        // shorten the array by one
-                        for (int j = i + 1; j < count - 1; ++j) {
-                            buffer[j] = buffer[j + 1];
-                        }
-                        --count;
-                    } else {
-                        escPos = i;
-                        count = i;
-                        break;
-                    }
-                }
-            }
-            if (result == null) {
-                result = Arrays.copyOf(buffer, count);
-            } else {
-                byte[] newResult = Arrays.copyOf(result, result.length + count);
-                for (int i = 0; i < count; ++i) {
-                    newResult[result.length + i] = buffer[i];
-                }
-                result = newResult;
+        return data;
+    }
+
+    private void appendToToken(int from, int to) {
+        int count = to - from;
+        if (tokenLength + count > token.length) {
+            byte[] newToken = new byte[Math.max(token.length * 2, tokenLength + count)];
+            System.arraycopy(token, 0, newToken, 0, tokenLength);
+            token = newToken;
+        }
+        System.arraycopy(buffer, from, token, tokenLength, count);
+        tokenLength += count;
+    }
+
+    /*
+     * Reads up to (but not including) the next unescaped ESC into token,
+     * replacing escaped ESCs with a single ESC.
+     */
+    private void readToEscape() throws ProtocolException, IOException {
+        tokenLength = 0;
+        while (true) {
+            if (!fill(1))
+                throw new EOFException("Core closed the stream while we were expecting ESC");
+            int start = pos;
+            while (pos < limit && buffer[pos] != ESC)
+                ++pos;
+            appendToToken(start, pos);
+            if (pos < limit) {
+                if (!fill(2))
+                    throw new EOFException("Core closed the stream after an ESC");
+                if (buffer[pos + 1] != ESC)
+                    return;
+                // escaped ESC
+                appendToToken(pos, pos + 1);
+                pos += 2;
             }
         }
-        input.reset();
-        input.read(buffer, 0, escPos);
-        return result;
     }
 
     private int readIntToEscape() throws ProtocolException, IOException {
-        try {
-            return Integer.parseInt(asciiToString(readToEscape()));
-        } catch (NumberFormatException ex) {
+        readToEscape();
+        if (tokenLength == 0)
             throw new ProtocolException("Expecting a decimal integer");
+        int result = 0;
+        for (int i = 0; i < tokenLength; ++i) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9 || result > (Integer.MAX_VALUE - digit) / 10)
+                throw new ProtocolException("Expecting a decimal integer");
+            result = result * 10 + digit;
         }
+        return result;
     }
 
     private String readAsciiStringToEscape() throws ProtocolException, IOException {
-        return asciiToString(readToEscape());
+        readToEscape();
+        return asciiToString(token, 0, tokenLength);
     }
 
     private String readStringToEscape() throws ProtocolException, IOException {
-        return utf8ToString(readToEscape());
+        readToEscape();
+        return utf8ToString(token, 0, tokenLength);
     }
 
     private String[] readStringList() throws ProtocolException, IOException {
@@ -220,7 +276,7 @@ public class ProtocolReader {
 
     private Response parseXmlResponseBody(String requestId) throws ProtocolException, IOException {
         Response resp = new Response(Response.MessageType.Xml, requestId);
-        resp.setStringData(utf8ToString(readDataBlock()));
+        resp.setByteData(readDataBlock());
         return resp;
     }
 
@@ -261,28 +317,16 @@ public class ProtocolReader {
     }
 
     private void skipToBodyEnd() throws IOException, ProtocolException {
-        boolean esc = false;
-        input.mark(2);
-        int ch = input.read();
-        while (ch != -1) {
-            if (esc) {
-                if (ch == '[') {
-                    // data chunk
-                    input.reset();
-                    readDataBlock();
-                    input.mark(2);
-                } else if (ch == '>') {
-                    input.reset();
-                    break;
-                }
-                esc = false;
-                input.mark(2);
-            } else if (ch == ESC) {
-                esc = true;
+        while (fill(2)) {
+            if (buffer[pos] != ESC) {
+                ++pos;
+            } else if (buffer[pos + 1] == '[') {
+                readDataBlock();
+            } else if (buffer[pos + 1] == '>') {
+                break;
             } else {
-                input.mark(2);
+                pos += 2;
             }
-            ch = input.read();
         }
     }
 
@@ -295,11 +339,17 @@ public class ProtocolReader {
 
     public Response parseNextResponse() throws IOException, ProtocolException {
         waitForReady();
+        String requestId = null;
         try {
+            // the time the core spends on the request ends when the
+            // first byte of the response arrives
+            fill(1);
+            long received = System.nanoTime();
+            long startOffset = input.getByteCount() - (limit - pos);
             eatEscChar('<');
             String code = readAsciiStringToEscape();
             eatEscChar(':');
-            String requestId = readStringToEscape();
+            requestId = readStringToEscape();
             eatEscChar('|');
             Response resp;
             if (code.equals("Q"))
@@ -331,20 +381,66 @@ public class ProtocolReader {
             else
                 resp = parseUnknownResponseBody(code, requestId);
             eatEscChar('>');
+            resp.setTiming(received, System.nanoTime(),
+                    input.getByteCount() - (limit - pos) - startOffset);
             input.writeLog(Level.FINEST, "Received message");
             return resp;
         } catch (IOException ex) {
+            // closing the stream cuts off whatever was being read
+            if (closed)
+                throw ex;
             input.writeLog(Level.SEVERE, "Received partial message");
             consumeStream();
             throw ex;
         } catch (ProtocolException ex) {
+            if (closed)
+                throw ex;
             input.writeLog(Level.SEVERE, "Received invalid message");
-            consumeStream();
+            if (requestId != null) {
+                ex.setRequestId(requestId);
+                skipToNextMessage();
+            } else {
+                consumeStream();
+            }
             throw ex;
         }
     }
 
+    /*
+     * Discards the rest of an invalid message, up to the start of the
+     * next message, without waiting for more input.
+     */
+    private void skipToNextMessage() {
+        try {
+            while (true) {
+                while (pos + 1 < limit) {
+                    if (buffer[pos] != ESC) {
+                        ++pos;
+                    } else if (buffer[pos + 1] == '<') {
+                        return;
+                    } else {
+                        // an escaped ESC, or some other marker
+                        pos += 2;
+                    }
+                }
+                if (input.available() == 0)
+                    break;
+                fill(limit - pos + 1);
+            }
+        } catch (IOException ex) {
+        }
+        consumeStream();
+    }
+
     private void consumeStream() {
+        if (pos < limit) {
+            if (logger.isLoggable(Level.INFO)) {
+                String strVal = new String(buffer, pos, limit - pos)
+                        .replace('\u001b', '\u00a4');
+                logger.log(Level.INFO, "Discarding data: \"{0}\"", strVal);
+            }
+            pos = limit;
+        }
         try {
             byte[] b = new byte[1024];
             int count = 0;
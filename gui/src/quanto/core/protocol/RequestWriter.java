@@ -9,6 +9,7 @@ import java.util.Collection;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import static quanto.core.protocol.Utils.*;
 
@@ -19,8 +20,15 @@ import static quanto.core.protocol.Utils.*;
 public class RequestWriter
 {
     private LoggingOutputStream output;
+    // held from addHeader() until closeMessage(), so that messages
+    // from different threads are not interleaved
+    private final ReentrantLock messageLock = new ReentrantLock();
     private boolean inMessage = false;
     private boolean argNeedsClosing = false;
+    private ProtocolMetrics metrics;
+    private String messageId;
+    private long messageStartNanos;
+    private long messageStartBytes;
     public static final byte ESC = '\u001b';
 
     public RequestWriter(OutputStream output) {
@@ -29,6 +37,10 @@ public class RequestWriter
                 "quanto.core.protocol.stream");
     }
 
+    void setMetrics(ProtocolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void close() throws IOException {
         output.close();
     }
@@ -40,8 +52,15 @@ public class RequestWriter
 
     public void addHeader(String code, String requestId) throws IOException
     {
+        messageLock.lock();
         assert !inMessage;
         inMessage = true;
+        if (metrics != null) {
+            messageId = requestId;
+            metrics.requestStarted(requestId, code);
+            messageStartNanos = System.nanoTime();
+            messageStartBytes = output.getByteCount();
+        }
         addEscapedChar('<');
         output.write(stringToAscii(code));
         addEscapedChar(':');
@@ -75,11 +94,43 @@ public class RequestWriter
     public void closeMessage() throws IOException
     {
         assert inMessage;
-        argNeedsClosing = false;
-        addEscapedChar('>');
-        inMessage = false;
-        output.writeLog(Level.FINEST, "Sending message to core");
-        output.flush();
+        boolean written = false;
+        try {
+            argNeedsClosing = false;
+            addEscapedChar('>');
+            inMessage = false;
+            output.writeLog(Level.FINEST, "Sending message to core");
+            output.flush();
+            written = true;
+            if (metrics != null) {
+                metrics.requestWritten(messageId, messageStartNanos, System.nanoTime(),
+                        output.getByteCount() - messageStartBytes);
+            }
+        } finally {
+            if (!written && metrics != null) {
+                metrics.requestAbandoned(messageId);
+            }
+            inMessage = false;
+            messageLock.unlock();
+        }
+    }
+
+    /**
+     * Gives up on the current message, if this thread is writing one.
+     *
+     * Must be called if writing a message fails, so that other threads
+     * can write to the core (although the core is unlikely to make sense
+     * of what it has been sent).
+     */
+    public void abandonMessage() {
+        if (messageLock.isHeldByCurrentThread()) {
+            if (metrics != null) {
+                metrics.requestAbandoned(messageId);
+            }
+            inMessage = false;
+            argNeedsClosing = false;
+            messageLock.unlock();
+        }
     }
 
     private void addDataChunk(byte[] data) throws IOException
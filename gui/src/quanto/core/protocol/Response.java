@@ -4,6 +4,8 @@
  */
 package quanto.core.protocol;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import static quanto.core.protocol.Utils.*;
 
 /**
@@ -34,6 +36,9 @@ public class Response {
     private String[] stringListData;
     private byte[] byteData;
     private int intData;
+    private long receivedNanos;
+    private long parsedNanos;
+    private long byteCount;
 
     public Response(MessageType type, String requestId) {
         this.messageType = type;
@@ -48,6 +53,33 @@ public class Response {
         return requestId;
     }
 
+    void setTiming(long receivedNanos, long parsedNanos, long byteCount) {
+        this.receivedNanos = receivedNanos;
+        this.parsedNanos = parsedNanos;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * When the first byte of the response arrived, as System.nanoTime()
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * When the response had been parsed, as System.nanoTime()
+     */
+    public long getParsedNanos() {
+        return parsedNanos;
+    }
+
+    /**
+     * The size of the response, in bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
     public MessageType getMessageType() {
         return messageType;
     }
@@ -91,6 +123,15 @@ public class Response {
         return byteData;
     }
 
+    /**
+     * The data of the response as a stream, without decoding it.
+     *
+     * For XML responses, this is the document encoded as UTF-8.
+     */
+    public InputStream getDataStream() {
+        return new ByteArrayInputStream(getByteData());
+    }
+
     void setByteData(byte[] byteData) {
         this.byteData = byteData;
     }
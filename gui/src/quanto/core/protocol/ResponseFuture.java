@@ -0,0 +1,118 @@
+package quanto.core.protocol;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import quanto.core.CoreException;
+
+/**
+ * The (eventual) result of a request sent to the core while the
+ * ProtocolManager is in pipelined mode.
+ *
+ * Requests cannot be withdrawn once they have been written to the
+ * core, so these futures cannot be cancelled.
+ *
+ * @see ProtocolManager#setPipelined(boolean)
+ */
+public abstract class ResponseFuture<T> implements Future<T> {
+
+    private final Response.MessageType expectedType;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Response response;
+    private volatile CoreException failure;
+
+    /**
+     * @param expectedType  the type of response the request should produce,
+     *                      or null to accept any successful response
+     */
+    protected ResponseFuture(Response.MessageType expectedType) {
+        this.expectedType = expectedType;
+    }
+
+    /**
+     * Extracts the result from a (successful) response
+     */
+    protected abstract T convert(Response resp) throws CoreException;
+
+    void complete(Response resp) {
+        response = resp;
+        done.countDown();
+    }
+
+    void fail(CoreException ex) {
+        failure = ex;
+        done.countDown();
+    }
+
+    private T result() throws CoreException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (expectedType != null) {
+            ProtocolManager.checkResponse(response, expectedType);
+        }
+        return convert(response);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        try {
+            return result();
+        } catch (CoreException ex) {
+            throw new ExecutionException(ex);
+        }
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        try {
+            return result();
+        } catch (CoreException ex) {
+            throw new ExecutionException(ex);
+        }
+    }
+
+    /**
+     * Waits for the response, and returns the result in the same way
+     * as the synchronous ProtocolManager methods.
+     *
+     * Like those methods, this cannot be interrupted (although the
+     * interrupt status of the thread will be preserved).
+     *
+     * @return the result of the request
+     * @throws CoreException the core reported an error, or there was a
+     *                       communication error with the core
+     */
+    public T getResult() throws CoreException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return result();
+    }
+}
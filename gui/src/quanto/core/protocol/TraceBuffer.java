@@ -0,0 +1,67 @@
+package quanto.core.protocol;
+
+/**
+ * Keeps the most recent data that passed through a logging stream.
+ *
+ * Only the last few kilobytes are kept, so tracing a multi-megabyte
+ * message does not keep the whole message in memory.
+ */
+class TraceBuffer
+{
+    static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private final char[] buffer;
+    // the next position to write to
+    private int end = 0;
+    // how much has been appended since the last reset
+    private long total = 0;
+
+    public TraceBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceBuffer(int capacity) {
+        buffer = new char[capacity];
+    }
+
+    public void append(int b) {
+        buffer[end] = (char)(b & 0xff);
+        end = (end + 1) % buffer.length;
+        ++total;
+    }
+
+    public void append(byte[] b, int off, int len) {
+        if (len > buffer.length) {
+            // only the tail would survive anyway
+            total += len - buffer.length;
+            off += len - buffer.length;
+            len = buffer.length;
+        }
+        for (int i = off; i < off + len; ++i) {
+            append(b[i]);
+        }
+    }
+
+    public void reset() {
+        end = 0;
+        total = 0;
+    }
+
+    /**
+     * The buffered data, with ESC characters made visible.
+     */
+    @Override
+    public String toString() {
+        int size = (int)Math.min(total, buffer.length);
+        StringBuilder result = new StringBuilder(size + 32);
+        if (total > size) {
+            result.append("[").append(total - size).append(" bytes omitted]");
+        }
+        int start = (end - size + buffer.length) % buffer.length;
+        for (int i = 0; i < size; ++i) {
+            char ch = buffer[(start + i) % buffer.length];
+            result.append(ch == '\u001b' ? '\u00a4' : ch);
+        }
+        return result.toString();
+    }
+}
@@ -1,5 +1,8 @@
 package quanto.core.protocol;
 
+import java.util.Collection;
+import java.util.Map;
+
 import quanto.core.data.CoreGraph;
 
 public interface UserDataSerializer<D> {
@@ -9,8 +12,10 @@ public interface UserDataSerializer<D> {
 	public D      stringToData(String s);
 	
 	public void setVertexUserData(ProtocolManager talker, CoreGraph g, String vertexName, D data);
+	public void setVerticesUserData(ProtocolManager talker, CoreGraph g, Map<String, D> data);
 	public void setGraphUserData(ProtocolManager talker, CoreGraph g, D data);
 	
 	public D getVertexUserData(ProtocolManager talker, CoreGraph g, String vertexName);
+	public Map<String, D> getVerticesUserData(ProtocolManager talker, CoreGraph g, Collection<String> vertexNames);
 	public D getGraphUserData(ProtocolManager talker, CoreGraph g);
 }
@@ -27,6 +27,14 @@ final class Utils {
         }
     }
     
+    static String utf8ToString(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new Error("The Java environment does not support the required UTF-8 encoding.");
+        }
+    }
+    
     static byte[] stringToAscii(String str)
     {
         try {
@@ -43,4 +51,12 @@ final class Utils {
             throw new Error("The Java environment does not support the required US-ASCII encoding.");
         }
     }
+
+    static String asciiToString(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "US-ASCII");
+        } catch (UnsupportedEncodingException ex) {
+            throw new Error("The Java environment does not support the required US-ASCII encoding.");
+        }
+    }
 }
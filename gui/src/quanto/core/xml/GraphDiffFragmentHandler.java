@@ -0,0 +1,330 @@
+package quanto.core.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import quanto.core.Theory;
+import quanto.core.data.BangBox;
+import quanto.core.data.CoreGraph;
+import quanto.core.data.Edge;
+import quanto.core.data.Vertex;
+
+/**
+ * Applies a graph_diff from the core to an existing graph.
+ *
+ * Vertices, edges and !-boxes are matched up by name, and vertices that
+ * are still there (with the same type) are kept, so that anything attached
+ * to them (like layout positions) survives the update.
+ */
+public class GraphDiffFragmentHandler extends DefaultFragmentHandler<CoreGraph> {
+	private Theory theory;
+	private CoreGraph graph;
+	private int version;
+	private int baseVersion;
+	private Set<String> removedVerts;
+	private Set<String> removedEdges;
+	private Set<String> removedBangBoxes;
+	private Map<String,Vertex> verts;
+	private Map<String,Map<String, String>> verts_ud;
+	private Map<String,EdgeFragmentHandler.EdgeData> edges;
+	private Map<String,BangBoxFragmentHandler.BangBoxData> bbs;
+	private enum Mode {
+		None,
+		Diff,
+		Removed,
+		RemovedName,
+		UserData,
+		Component
+	}
+	private Mode mode = Mode.None;
+	private FragmentHandler<?> componentData = null;
+	private String removedElem = null;
+	private StringBuilder removedName = new StringBuilder();
+	private int unknownElementDepth = 0;
+
+	private static final String DIFF_ELEM = "graph_diff";
+	private static final String REMOVED_ELEM = "removed";
+	private static final String VERTEX_ELEM = "vertex";
+	private static final String EDGE_ELEM = "edge";
+	private static final String BANGBOX_ELEM = "bangbox";
+	private static final String USERDATA_ELEM = "user_data";
+	private static final String VERTEX_UD_ELEM = "vertex_data";
+
+	public GraphDiffFragmentHandler(Theory theory, CoreGraph graph) {
+		this.theory = theory;
+		this.graph = graph;
+	}
+
+	public boolean isComplete() {
+		return mode == Mode.None;
+	}
+
+	private int parseVersion(Attributes attributes, String name) throws SAXException {
+		String value = attributes.getValue("", name);
+		if (value == null) {
+			throw new SAXParseException("Missing \"" + name + "\" attribute", locator);
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			throw new SAXParseException("Bad \"" + name + "\" attribute", locator, ex);
+		}
+	}
+
+	private Vertex getVertex(Map<String,Vertex> vmap, String name, String context) throws SAXException {
+		Vertex v = vmap.get(name);
+		if (v == null) {
+			throw new SAXParseException(
+				"No such vertex \"" + name + "\" " + context,
+				locator);
+		}
+		return v;
+	}
+
+	/*
+	 * Swaps in a new vertex object, keeping the edges and !-boxes
+	 * attached to the old one.
+	 */
+	private void replaceVertex(Vertex old, Vertex v) {
+		Map<Edge,Vertex> sources = new HashMap<Edge, Vertex>();
+		Map<Edge,Vertex> targets = new HashMap<Edge, Vertex>();
+		for (Edge e : graph.getIncidentEdges(old)) {
+			Vertex s = graph.getSource(e);
+			Vertex t = graph.getDest(e);
+			sources.put(e, s == old ? v : s);
+			targets.put(e, t == old ? v : t);
+		}
+		List<BangBox> boxes = new ArrayList<BangBox>();
+		for (BangBox b : graph.getBangBoxes()) {
+			if (graph.getBoxedVertices(b).contains(old)) {
+				boxes.add(b);
+			}
+		}
+
+		graph.removeVertex(old);
+		graph.addVertex(v);
+		for (Edge e : sources.keySet()) {
+			graph.addEdge(e, sources.get(e), targets.get(e));
+		}
+		for (BangBox b : boxes) {
+			Set<Vertex> contents = new HashSet<Vertex>(graph.getBoxedVertices(b));
+			contents.add(v);
+			graph.setBoxedVertices(b, contents);
+		}
+	}
+
+	public CoreGraph buildResult() throws SAXException {
+		Map<String,Vertex> vmap = graph.getVertexMap();
+		Map<String,Edge> emap = graph.getEdgeMap();
+		Map<String,BangBox> bmap = graph.getBangBoxMap();
+
+		if (baseVersion == 0) {
+			// a complete description: drop anything we weren't told about
+			for (String name : emap.keySet()) {
+				if (!edges.containsKey(name)) {
+					removedEdges.add(name);
+				}
+			}
+			for (String name : bmap.keySet()) {
+				if (!bbs.containsKey(name)) {
+					removedBangBoxes.add(name);
+				}
+			}
+			for (String name : vmap.keySet()) {
+				if (!verts.containsKey(name)) {
+					removedVerts.add(name);
+				}
+			}
+		}
+
+		for (String name : removedEdges) {
+			Edge e = emap.remove(name);
+			if (e != null) {
+				graph.removeEdge(e);
+			}
+		}
+		for (String name : removedBangBoxes) {
+			BangBox b = bmap.remove(name);
+			if (b != null) {
+				graph.removeBangBox(b);
+			}
+		}
+		for (String name : removedVerts) {
+			Vertex v = vmap.remove(name);
+			if (v != null) {
+				for (Edge e : graph.getIncidentEdges(v)) {
+					emap.remove(e.getCoreName());
+				}
+				graph.removeVertex(v);
+			}
+		}
+
+		for (Vertex v : verts.values()) {
+			String name = v.getCoreName();
+			Vertex old = vmap.get(name);
+			if (old == null) {
+				graph.addVertex(v);
+				vmap.put(name, v);
+			} else if (old.getVertexType() == v.getVertexType()) {
+				old.setData(v.getData());
+				v = old;
+			} else {
+				replaceVertex(old, v);
+				vmap.put(name, v);
+			}
+			v.setVertexUserData(verts_ud.get(name));
+		}
+
+		for (BangBoxFragmentHandler.BangBoxData b : bbs.values()) {
+			String name = b.bangBox.getCoreName();
+			Set<Vertex> contents = new HashSet<Vertex>();
+			for (String vName : b.vertexNames) {
+				contents.add(getVertex(vmap, vName,
+					"in !-box \"" + name + "\""));
+			}
+			BangBox old = bmap.get(name);
+			if (old == null) {
+				graph.addBangBox(b.bangBox, contents);
+			} else {
+				graph.setBoxedVertices(old, contents);
+			}
+		}
+
+		for (EdgeFragmentHandler.EdgeData e : edges.values()) {
+			String name = e.edge.getCoreName();
+			Vertex s = getVertex(vmap, e.sourceName,
+				"for the source of edge \"" + name + "\"");
+			Vertex t = getVertex(vmap, e.targetName,
+				"for the target of edge \"" + name + "\"");
+			Edge old = emap.get(name);
+			if (old != null) {
+				graph.removeEdge(old);
+			}
+			graph.addEdge(e.edge, s, t);
+		}
+
+		graph.setCoreSyncVersion(version);
+		return graph;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		if (unknownElementDepth > 0) {
+			++unknownElementDepth;
+		} else if (mode == Mode.None) {
+			if (!DIFF_ELEM.equals(localName)) {
+				throw new SAXParseException(
+						"Root element was not 'graph_diff'", locator);
+			}
+			version = parseVersion(attributes, "version");
+			baseVersion = parseVersion(attributes, "base");
+			removedVerts = new HashSet<String>();
+			removedEdges = new HashSet<String>();
+			removedBangBoxes = new HashSet<String>();
+			verts = new HashMap<String, Vertex>();
+			edges = new HashMap<String, EdgeFragmentHandler.EdgeData>();
+			bbs = new HashMap<String, BangBoxFragmentHandler.BangBoxData>();
+			verts_ud = new HashMap<String, Map<String,String>>();
+			mode = Mode.Diff;
+		} else if (mode == Mode.Removed) {
+			if (VERTEX_ELEM.equals(localName)
+					|| EDGE_ELEM.equals(localName)
+					|| BANGBOX_ELEM.equals(localName)) {
+				removedElem = localName;
+				removedName.setLength(0);
+				mode = Mode.RemovedName;
+			} else {
+				++unknownElementDepth;
+			}
+		} else if (mode == Mode.Diff || mode == Mode.UserData) {
+			if (mode == Mode.Diff && REMOVED_ELEM.equals(localName)) {
+				mode = Mode.Removed;
+				return;
+			} else if (mode == Mode.Diff && USERDATA_ELEM.equals(localName)) {
+				mode = Mode.UserData;
+				return;
+			} else if (mode == Mode.Diff && VERTEX_ELEM.equals(localName)) {
+				componentData = new VertexFragmentHandler(theory);
+			} else if (mode == Mode.Diff && EDGE_ELEM.equals(localName)) {
+				componentData = new EdgeFragmentHandler();
+			} else if (mode == Mode.Diff && BANGBOX_ELEM.equals(localName)) {
+				componentData = new BangBoxFragmentHandler();
+			} else if (mode == Mode.UserData && VERTEX_UD_ELEM.equals(localName)) {
+				componentData = new VertexUserDataFragmentHandler();
+			} else {
+				++unknownElementDepth;
+				return;
+			}
+			mode = Mode.Component;
+			componentData.setDocumentLocator(locator);
+			componentData.startElement(uri, localName, qName, attributes);
+		} else if (mode == Mode.Component) {
+			componentData.startElement(uri, localName, qName, attributes);
+		} else {
+			++unknownElementDepth;
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (unknownElementDepth > 0) {
+			--unknownElementDepth;
+		} else if (mode == Mode.Component) {
+			componentData.endElement(uri, localName, qName);
+			if (componentData.isComplete()) {
+				if (componentData instanceof VertexFragmentHandler) {
+					Vertex v = (Vertex)componentData.buildResult();
+					verts.put(v.getCoreName(), v);
+					mode = Mode.Diff;
+				} else if (componentData instanceof EdgeFragmentHandler) {
+					EdgeFragmentHandler.EdgeData e = ((EdgeFragmentHandler)componentData).buildResult();
+					edges.put(e.edge.getCoreName(), e);
+					mode = Mode.Diff;
+				} else if (componentData instanceof BangBoxFragmentHandler) {
+					BangBoxFragmentHandler.BangBoxData b = ((BangBoxFragmentHandler)componentData).buildResult();
+					bbs.put(b.bangBox.getCoreName(), b);
+					mode = Mode.Diff;
+				} else if (componentData instanceof VertexUserDataFragmentHandler) {
+					verts_ud.put(((VertexUserDataFragmentHandler)componentData).name,
+							((VertexUserDataFragmentHandler)componentData).buildResult());
+					mode = Mode.UserData;
+				}
+				componentData = null;
+			}
+		} else if (mode == Mode.RemovedName) {
+			String name = removedName.toString().trim();
+			if (VERTEX_ELEM.equals(removedElem)) {
+				removedVerts.add(name);
+			} else if (EDGE_ELEM.equals(removedElem)) {
+				removedEdges.add(name);
+			} else {
+				removedBangBoxes.add(name);
+			}
+			removedElem = null;
+			mode = Mode.Removed;
+		} else if (mode == Mode.Removed || mode == Mode.UserData) {
+			mode = Mode.Diff;
+		} else if (mode == Mode.Diff) {
+			// complete
+			assert(DIFF_ELEM.equals(localName));
+			mode = Mode.None;
+		} else {
+			throw new IllegalStateException("endElement cannot be called without a corresponding startElement; element was " + localName);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (mode == Mode.Component) {
+			componentData.characters(ch, start, length);
+		} else if (mode == Mode.RemovedName) {
+			removedName.append(ch, start, length);
+		}
+	}
+}
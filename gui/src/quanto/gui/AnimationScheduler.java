@@ -0,0 +1,115 @@
+package quanto.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Drives all the animations in the GUI from a single Swing timer.
+ *
+ * Each frame, every animation whose component is on screen is asked to
+ * repaint whatever it needs to.  The timer only runs while at least one
+ * of those components is showing, so hidden views cost nothing.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+class AnimationScheduler {
+	public interface Animation {
+		/**
+		 * Called once per frame, on the event dispatch thread.
+		 */
+		void nextFrame();
+	}
+
+	/**
+	 * The time between frames
+	 */
+	public static final int FRAME_MILLIS = 50;
+	private static AnimationScheduler instance = null;
+
+	private final Timer timer;
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	private class Entry implements HierarchyListener {
+		final JComponent owner;
+		final Animation animation;
+
+		Entry(JComponent owner, Animation animation) {
+			this.owner = owner;
+			this.animation = animation;
+		}
+
+		public void hierarchyChanged(HierarchyEvent e) {
+			if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0
+					&& owner.isShowing() && !timer.isRunning()) {
+				timer.start();
+			}
+		}
+	}
+
+	public static AnimationScheduler getDefault() {
+		if (instance == null) {
+			instance = new AnimationScheduler();
+		}
+		return instance;
+	}
+
+	public AnimationScheduler() {
+		timer = new Timer(FRAME_MILLIS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				nextFrame();
+			}
+		});
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * Starts running an animation.
+	 *
+	 * @param owner  the animation is paused while this is not showing
+	 * @param animation  the animation
+	 */
+	public void add(JComponent owner, Animation animation) {
+		Entry entry = new Entry(owner, animation);
+		entries.add(entry);
+		owner.addHierarchyListener(entry);
+		if (owner.isShowing() && !timer.isRunning()) {
+			timer.start();
+		}
+	}
+
+	/**
+	 * Stops running an animation.
+	 */
+	public void remove(Animation animation) {
+		for (int i = entries.size() - 1; i >= 0; --i) {
+			Entry entry = entries.get(i);
+			if (entry.animation == animation) {
+				entry.owner.removeHierarchyListener(entry);
+				entries.remove(i);
+			}
+		}
+		if (entries.isEmpty()) {
+			timer.stop();
+		}
+	}
+
+	private void nextFrame() {
+		boolean showing = false;
+		// copy, as an animation may remove itself
+		for (Entry entry : new ArrayList<Entry>(entries)) {
+			if (entry.owner.isShowing()) {
+				showing = true;
+				entry.animation.nextFrame();
+			}
+		}
+		if (!showing) {
+			timer.stop();
+		}
+	}
+}
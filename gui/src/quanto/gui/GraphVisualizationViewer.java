@@ -18,6 +18,10 @@ import edu.uci.ics.jung.contrib.visualization.BangBoxGraphVisualizationViewer;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.Context;
 import edu.uci.ics.jung.visualization.Layer;
+import edu.uci.ics.jung.visualization.layout.LayoutSpatialIndex;
+import edu.uci.ics.jung.visualization.layout.VertexMovedEvent;
+import edu.uci.ics.jung.visualization.picking.ShapePickSupport;
+import edu.uci.ics.jung.visualization.util.ChangeEventSupport;
 import edu.uci.ics.jung.visualization.renderers.Renderer.VertexLabel;
 import edu.uci.ics.jung.visualization.transform.MutableTransformer;
 import java.awt.Color;
@@ -49,6 +53,9 @@ public class GraphVisualizationViewer
 	private CoreGraph graph;
 	private BackdropPaintable boundsPaint;
 	private boolean boundsPaintingEnabled = false;
+	// so that only the visible part of a large graph is painted
+	private final LayoutSpatialIndex<Vertex, Edge> spatialIndex =
+		new LayoutSpatialIndex<Vertex, Edge>(100.0, 100.0);
 //private QuantoForceLayout layout;
 	
 	public GraphVisualizationViewer(CoreGraph graph) {
@@ -69,8 +76,23 @@ public class GraphVisualizationViewer
 
 		setPreferredSize(calculateGraphSize());
 
+		// the model wraps the layout in one that tells us about changes
+		((ChangeEventSupport)getGraphLayout()).addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				Object moved = null;
+				if (e instanceof VertexMovedEvent) {
+					moved = ((VertexMovedEvent<?>)e).getVertex();
+				}
+				if (moved instanceof Vertex) {
+					spatialIndex.moved((Vertex)moved);
+				} else {
+					spatialIndex.invalidate();
+				}
+			}
+		});
 		graph.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
+				spatialIndex.invalidate();
 				modifyLayout();
                 fireStateChanged();
 			}
@@ -96,12 +118,16 @@ public class GraphVisualizationViewer
 		getRenderContext().setVertexLabelRenderer(new QVertexAngleLabeler());
 		getRenderContext().setVertexFillPaintTransformer(new QVertexColorTransformer());
 		getRenderContext().setVertexShapeTransformer(new QVertexShapeTransformer());
-		getRenderContext().setVertexIconTransformer(new QVertexIconTransformer());
+		getRenderContext().setVertexIconTransformer(new QVertexIconTransformer(true));
 
 		getRenderer().setVertexRenderer(new QVertexRenderer());
 		getRenderer().getVertexLabelRenderer().setPosition(
 			VertexLabel.Position.S);
       getRenderer().setBangBoxRenderer(new BangBoxRenderer());
+		getRenderer().setSpatialIndex(spatialIndex);
+		if (getPickSupport() instanceof ShapePickSupport) {
+			((ShapePickSupport<Vertex, Edge>)getPickSupport()).setSpatialIndex(spatialIndex);
+		}
 		// For debugging: show a grid behind the graph
 		//addPreRenderPaintable(new GridPaintable(new GridPaintable.BoundsCalculator() {
                 //              public Rectangle2D getBounds() { return getGraphBounds(); }
@@ -148,6 +174,14 @@ public class GraphVisualizationViewer
 	public CoreGraph getGraph() {
 		return graph;
 	}
+
+	/**
+	 * The index used to find the vertices and edges in a region, when
+	 * painting and picking.
+	 */
+	public LayoutSpatialIndex<Vertex, Edge> getSpatialIndex() {
+		return spatialIndex;
+	}
 	
 	public void setCoreGraph(CoreGraph g) {
 		this.graph = g;
@@ -247,6 +281,7 @@ public class GraphVisualizationViewer
 	}
 
 	public void update() {
+		spatialIndex.invalidate();
 		Relaxer relaxer = getModel().getRelaxer();
 		if (relaxer != null) {
 			relaxer.relax();
@@ -19,16 +19,21 @@ import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.border.LineBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -41,8 +46,10 @@ import edu.uci.ics.jung.contrib.visualization.control.ViewScrollingGraphMousePlu
 import edu.uci.ics.jung.contrib.visualization.ViewZoomScrollPane;
 import edu.uci.ics.jung.contrib.visualization.control.ConstrainedPickingBangBoxGraphMousePlugin;
 import edu.uci.ics.jung.visualization.Layer;
+import edu.uci.ics.jung.visualization.MultiLayerTransformer;
 import edu.uci.ics.jung.visualization.VisualizationServer;
 import edu.uci.ics.jung.visualization.control.*;
+import edu.uci.ics.jung.visualization.renderers.BasicVertexLabelRenderer;
 import edu.uci.ics.jung.visualization.renderers.VertexLabelRenderer;
 import edu.uci.ics.jung.visualization.transform.shape.GraphicsDecorator;
 import java.awt.geom.AffineTransform;
@@ -55,7 +62,6 @@ import quanto.core.data.AttachedRewrite;
 import quanto.core.protocol.Point2DUserDataSerialiazer;
 import quanto.core.Core;
 import quanto.gui.graphhelpers.ConstrainedMutableAffineTransformer;
-import quanto.gui.graphhelpers.Labeler;
 import quanto.gui.graphhelpers.QVertexRenderer;
 
 public class InteractiveGraphView
@@ -71,6 +77,21 @@ public class InteractiveGraphView
 	private Core core;
 	private RWMouse graphMouse;
 	private volatile Job rewriter = null;
+	/**
+	 * How often a running rewriter updates the view, at most
+	 */
+	private static final int FRAME_MILLIS = 40;
+	/**
+	 * Runs the rewriters of all views, each on its own thread
+	 */
+	private static final ExecutorService rewriteExecutor =
+		Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Rewriter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	private List<AttachedRewrite<CoreGraph>> rewriteCache = null;
 	private JPanel indicatorPanel = null;
 	private List<Job> activeJobs = null;
@@ -86,92 +107,203 @@ public class InteractiveGraphView
 		return this.getParent() != null;
 	}
 
-	private class QVertexLabeler implements VertexLabelRenderer {
-
-		Map<Vertex, Labeler> components;
-		JLabel dummyLabel = new JLabel();
-		JLabel realLabel = new JLabel();
+	/**
+	 * Paints the data labels of the vertices.
+	 *
+	 * One label component is shared by all the vertices, and is painted
+	 * through the viewer's renderer pane rather than being added to the
+	 * viewer.  A text field is added only while a label is being edited,
+	 * which is started by double-clicking on the label.
+	 */
+	private class QVertexLabeler extends BasicVertexLabelRenderer<Vertex, Edge>
+			implements VertexLabelRenderer {
+
+		private final JLabel label = new JLabel();
+		// only used to measure labels, so that hit testing leaves label alone
+		private final JLabel measureLabel = new JLabel();
+		private final JLabel dummyLabel = new JLabel();
+		private final JTextField editor = new JTextField();
+		private Vertex editing = null;
+		// the size of each label text that has been painted
+		private final Map<String, Dimension> sizes = new HashMap<String, Dimension>();
+		// the largest of the sizes
+		private int maxWidth = 0;
+		private int maxHeight = 0;
+		private final Map<Color, Border> borders = new HashMap<Color, Border>();
 
 		public QVertexLabeler() {
-			components = new HashMap<Vertex, Labeler>();
-			realLabel.setOpaque(true);
-			realLabel.setBackground(Color.white);
+			label.setOpaque(true);
+			// the borders are all one pixel wide, whatever the colour
+			measureLabel.setBorder(new LineBorder(Color.yellow, 1));
+			editor.addKeyListener(new KeyAdapter() {
+				@Override
+				public void keyReleased(KeyEvent e) {
+					if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+						stopEditing(true);
+					} else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+						stopEditing(false);
+					}
+				}
+			});
+			editor.addFocusListener(new FocusAdapter() {
+				@Override
+				public void focusLost(FocusEvent e) {
+					stopEditing(true);
+				}
+			});
+		}
+
+		private boolean hasLabel(Vertex v) {
+			return !v.isBoundaryVertex() && v.getVertexType().hasData();
+		}
+
+		/**
+		 * Sets up the shared label to show the label of v.
+		 */
+		private JLabel prepareLabel(Vertex v) {
+			Color colour = v.getVertexType().getVisualizationData().getLabelColour();
+			if (colour == null) {
+				colour = Color.yellow;
+			}
+			Border border = borders.get(colour);
+			if (border == null) {
+				border = new LineBorder(colour, 1);
+				borders.put(colour, border);
+			}
+			label.setBackground(colour);
+			label.setBorder(border);
+			label.setText(labelText(v));
+			return label;
+		}
+
+		private String labelText(Vertex v) {
+			return viewer.getRenderContext().getVertexLabelTransformer().transform(v);
+		}
+
+		private Dimension sizeOf(String text) {
+			Dimension size = sizes.get(text);
+			if (size == null) {
+				measureLabel.setText(text);
+				size = measureLabel.getPreferredSize();
+				sizes.put(text, size);
+				maxWidth = Math.max(maxWidth, size.width);
+				maxHeight = Math.max(maxHeight, size.height);
+			}
+			return size;
+		}
+
+		/**
+		 * The screen area covered by the label of v, centred just below
+		 * the vertex.
+		 */
+		private Rectangle labelBounds(Layout<Vertex, Edge> layout, Vertex v) {
+			Point2D screen = viewer.getRenderContext().
+				getMultiLayerTransformer().transform(layout.transform(v));
+			Dimension size = sizeOf(labelText(v));
+			return new Rectangle((int) screen.getX() - size.width / 2,
+					     (int) screen.getY() + 10,
+					     size.width, size.height);
 		}
 
 		public <T> Component getVertexLabelRendererComponent(JComponent vv,
 								     Object value, Font font, boolean isSelected, T vertex) {
-			if (vertex instanceof Vertex)
-			{
-				final Vertex qVertex = (Vertex) vertex;
-				if (qVertex.isBoundaryVertex() || !qVertex.getVertexType().hasData()) {
-					return dummyLabel;
-				}
+			if (vertex instanceof Vertex && hasLabel((Vertex) vertex)) {
+				return prepareLabel((Vertex) vertex);
+			}
+			return dummyLabel;
+		}
 
-				Point2D screen = viewer.getRenderContext().
-					getMultiLayerTransformer().transform(
-					viewer.getGraphLayout().transform(qVertex));
-				
-				String label = qVertex.getData().getStringValue();
-
-				// lazily create the labeler
-				Labeler labeler = components.get(qVertex);
-				if (labeler == null) {
-					labeler = new Labeler(qVertex.getVertexType().getDataType(), label);
-					components.put(qVertex, labeler);
-					viewer.add(labeler);
-					Color colour = qVertex.getVertexType().getVisualizationData().getLabelColour();
-					if (colour != null) {
-						labeler.setColor(colour);
-					}
+		@Override
+		public void labelVertex(RenderContext<Vertex, Edge> rc, Layout<Vertex, Edge> layout,
+					Vertex v, String value) {
+			if (v == editing || !hasLabel(v)) {
+				return;
+			}
+			prepareLabel(v);
+			Rectangle rect = labelBounds(layout, v);
+			rc.getGraphicsContext().draw(label, rc.getRendererPane(),
+						     rect.x, rect.y, rect.width, rect.height, true);
+		}
 
-					labeler.addChangeListener(new ChangeListener() {
-						public void stateChanged(ChangeEvent e) {
-							Labeler lab = (Labeler) e.getSource();
-							if (qVertex != null) {
-								try {
-									core.setVertexAngle(getGraph(), qVertex, lab.getText());
-								}
-								catch (CoreException err) {
-									errorDialog(err.getMessage());
-								}
-							}
-						}
-					});
-				}
-				
-				labeler.setText(label);
-				
-				Rectangle rect = new Rectangle(labeler.getPreferredSize());
-				Point loc = new Point((int) (screen.getX() - rect.getCenterX()),
-						      (int) screen.getY() + 10);
-				rect.setLocation(loc);
-
-				if (!labeler.getBounds().equals(rect)) {
-					labeler.setBounds(rect);
+		/**
+		 * @return the vertex whose label is at p, or null
+		 */
+		public Vertex labelAt(Point p) {
+			Layout<Vertex, Edge> layout = viewer.getGraphLayout();
+			// a label is centred below its vertex, so only vertices in
+			// this area of the screen can have a label at p
+			Rectangle area = new Rectangle(p.x - maxWidth / 2 - 1, p.y - 10 - maxHeight,
+						       maxWidth + 2, maxHeight + 1);
+			for (Vertex v : viewer.getSpatialIndex().getVertices(layout, toLayout(area))) {
+				if (hasLabel(v) && labelBounds(layout, v).contains(p)) {
+					return v;
 				}
-
-				return dummyLabel;
 			}
-			else if (value != null)
-			{
-				realLabel.setText(value.toString());
-				return realLabel;
+			return null;
+		}
+
+		/**
+		 * The smallest rectangle in layout coordinates that covers the
+		 * given screen area.
+		 */
+		private Rectangle2D toLayout(Rectangle area) {
+			MultiLayerTransformer mlt = viewer.getRenderContext().getMultiLayerTransformer();
+			Rectangle2D result = null;
+			for (int i = 0; i < 4; ++i) {
+				Point2D corner = mlt.inverseTransform(new Point2D.Double(
+					(i & 1) == 0 ? area.getMinX() : area.getMaxX(),
+					(i & 2) == 0 ? area.getMinY() : area.getMaxY()));
+				if (result == null) {
+					result = new Rectangle2D.Double(corner.getX(), corner.getY(), 0, 0);
+				} else {
+					result.add(corner);
+				}
 			}
-			else
-			{
-				return dummyLabel;
+			return result;
+		}
+
+		public void startEditing(Vertex v) {
+			stopEditing(true);
+			Rectangle rect = labelBounds(viewer.getGraphLayout(), v);
+			editing = v;
+			editor.setText(v.getData().getStringValue());
+			Dimension size = editor.getPreferredSize();
+			rect.width = Math.max(rect.width, size.width + 20);
+			rect.height = Math.max(rect.height, size.height);
+			editor.setBounds(rect);
+			viewer.add(editor);
+			editor.requestFocusInWindow();
+			editor.selectAll();
+			viewer.repaint();
+		}
+
+		public void stopEditing(boolean commit) {
+			if (editing == null) {
+				return;
+			}
+			Vertex v = editing;
+			editing = null;
+			viewer.remove(editor);
+			viewer.repaint();
+			String text = editor.getText();
+			if (commit && !text.equals(v.getData().getStringValue())) {
+				try {
+					core.setVertexAngle(getGraph(), v, text);
+				}
+				catch (CoreException err) {
+					errorDialog(err.getMessage());
+				}
 			}
 		}
 
 		/**
-		 * Removes orphaned labels.
+		 * Abandons any edit and forgets the cached labels.
 		 */
 		public void cleanup() {
-			final Map<Vertex, Labeler> oldComponents = components;
-			components = new HashMap<Vertex, Labeler>();
-			for (Labeler l : oldComponents.values()) {
-				viewer.remove(l);
-			}
+			stopEditing(false);
+			sizes.clear();
+			maxWidth = 0;
+			maxHeight = 0;
 		}
 	}
 
@@ -267,19 +399,22 @@ public class InteractiveGraphView
 		initLayout = new QuantoDotLayout(g);
 		initLayout.initialize();
 		forceLayout= new QuantoForceLayout(g, initLayout, 20.0);
+		forceLayout.setParallel(QuantoApp.getInstance().getPreference(
+			QuantoApp.PARALLEL_LAYOUT));
 		smoothLayout = new SmoothLayoutDecorator<Vertex, Edge>(forceLayout);
 		viewer = new GraphVisualizationViewer(smoothLayout);
 		
 		/* This is probably not the place to do it:
 		 * get vertices user data from graph, and set
 		 * position.*/
-    	Map<String, Vertex> vmap = g.getVertexMap();
-    	for(String key : vmap.keySet()) {
-    		Point2DUserDataSerialiazer pds = new Point2DUserDataSerialiazer();
-			Point2D p = pds.getVertexUserData(core.getTalker(), g, key);
-			if (p != null) {
-				viewer.getGraphLayout().setLocation(vmap.get(key), p);
-				viewer.getGraphLayout().lock(vmap.get(key), true);
+    	Point2DUserDataSerialiazer pds = new Point2DUserDataSerialiazer();
+    	Map<String, Point2D> positions = pds.getVerticesUserData(core.getTalker(), g,
+    			Collections.<String>emptyList());
+    	for(Map.Entry<String, Point2D> entry : positions.entrySet()) {
+			Vertex v = g.getVertex(entry.getKey());
+			if (v != null) {
+				viewer.getGraphLayout().setLocation(v, entry.getValue());
+				viewer.getGraphLayout().lock(v, true);
 			}
     	}
 		
@@ -367,7 +502,20 @@ public class InteractiveGraphView
 			}
 		});
 
-		viewer.getRenderContext().setVertexLabelRenderer(new QVertexLabeler());
+		final QVertexLabeler labeler = new QVertexLabeler();
+		viewer.getRenderContext().setVertexLabelRenderer(labeler);
+		viewer.getRenderer().setVertexLabelRenderer(labeler);
+		viewer.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
+					Vertex v = labeler.labelAt(e.getPoint());
+					if (v != null) {
+						labeler.startEditing(v);
+					}
+				}
+			}
+		});
 
 		viewer.setBoundingBoxEnabled(false);
 		
@@ -496,8 +644,7 @@ public class InteractiveGraphView
 	}
 
 	/**
-	 * A separate thread that executes some job on the graph
-	 * asynchronously.
+	 * Some job that is executed on the graph asynchronously.
 	 *
 	 * This mainly exists to allow the job to be displayed to the user
 	 * and aborted.
@@ -506,18 +653,34 @@ public class InteractiveGraphView
 	 * end.  It may also call fireJobAborted() when it is interrupted,
 	 * but should work fine even if it doesn't.
 	 */
-	private abstract class Job extends Thread {
+	private abstract class Job implements Runnable {
 		private EventListenerList listenerList = new EventListenerList();
 		private JobEndEvent jobEndEvent = null;
+		private volatile boolean aborted = false;
+		private Future<?> future = null;
 
+		/**
+		 * Start running the job on an executor.
+		 */
+		public void start(ExecutorService executor) {
+			future = executor.submit(this);
+		}
 		/**
 		 * Abort the job.  The default implementation interrupts the
-		 * thread and calls fireJobAborted().
+		 * thread running the job, and calls fireJobAborted().
 		 */
 		public void abortJob() {
-			this.interrupt();
+			aborted = true;
+			if (future != null)
+				future.cancel(true);
 			fireJobAborted();
 		}
+		/**
+		 * Whether abortJob() has been called.
+		 */
+		protected boolean isAborted() {
+			return aborted;
+		}
 		/**
 		 * Add a job listener.
 		 *
@@ -727,28 +890,41 @@ public class InteractiveGraphView
 		//twice to remove it.
 		CoreGraph graph = getGraph();
 	    Point2DUserDataSerialiazer pds = new Point2DUserDataSerialiazer();
+	    Map<String, Point2D> oldPositions = pds.getVerticesUserData(getCore().getTalker(),
+	    		graph, Collections.<String>emptyList());
+	    Map<String, Point2D> newPositions = new HashMap<String, Point2D>();
 	    for(Vertex v : graph.getVertices()) {
 	    	//Update only if the vertex moved
 	    	int X = (int) viewer.getGraphLayout().transform(v).getX();
 	    	int Y = (int) viewer.getGraphLayout().transform(v).getY();
-	    	Point2D old_p = pds.getVertexUserData(getCore().getTalker(), graph, v.getCoreName());
 	    	Point2D new_p = new Point2D.Double(X, Y);
-	    	if (old_p == null) {
-	    		pds.setVertexUserData(getCore().getTalker(), graph, v.getCoreName(),
-	    			new_p);
-	    	} else if (!old_p.equals(new_p)){
-	    		pds.setVertexUserData(getCore().getTalker(), graph, v.getCoreName(),
-		    			new_p);
+	    	if (!new_p.equals(oldPositions.get(v.getCoreName()))) {
+	    		newPositions.put(v.getCoreName(), new_p);
 	    	}
 	    }
+	    pds.setVerticesUserData(getCore().getTalker(), graph, newPositions);
 	}
 	
+	/*
+	 * Runs the force layout over the vertices that are not locked.
+	 */
+	private void relayout() {
+		forceLayout.setParallel(QuantoApp.getInstance().getPreference(
+			QuantoApp.PARALLEL_LAYOUT));
+		forceLayout.startModify();
+		viewer.modifyLayout();
+		forceLayout.endModify();
+	}
+
 	public void updateGraph(Rectangle2D rewriteRect) throws CoreException {
 		core.updateGraph(getGraph());
+		// the diff brings the vertices' saved positions with it
+		Point2DUserDataSerialiazer pds = new Point2DUserDataSerialiazer();
 		for(Vertex v: getGraph().getVertices())	{	
 			if(verticesCache.get(v.getCoreName())!=null) {
-				Point2DUserDataSerialiazer pds = new Point2DUserDataSerialiazer();
-				Point2D p = pds.getVertexUserData(core.getTalker(), getGraph(), v.getCoreName());
+				Map<String, String> userData = v.getVertexUserData();
+				String position = userData == null ? null : userData.get(pds.dataTag);
+				Point2D p = position == null ? null : pds.stringToData(position);
 				if (p != null) {
 					viewer.getGraphLayout().setLocation(v, p);
 				} else {
@@ -758,19 +934,24 @@ public class InteractiveGraphView
 			}			
 		}
 		int count=0;
+		List<Vertex> created = new ArrayList<Vertex>();
 		for(Vertex v: getGraph().getVertices())	{					
 			if(verticesCache.get(v.getCoreName())==null) {
+				created.add(v);
 				if(rewriteRect!=null) {
 					viewer.shift(rewriteRect, v, new Point2D.Double(0, 20*count));
-					setVerticesPositionData();
 					count++;
 				}
             }
 		}
+		if (count > 0) {
+			setVerticesPositionData();
+		}
 		
-		forceLayout.startModify();
-		viewer.modifyLayout();
-		forceLayout.endModify();
+		// only the new vertices need laying out
+		forceLayout.setChangedVertices(created);
+		relayout();
+		forceLayout.setChangedVertices(null);
 		removeOldLabels();	
 		viewer.update();
 		//locking and unlocking used internally to notify the layout which vertices have user data
@@ -790,24 +971,31 @@ public class InteractiveGraphView
 	public void clearHighlight() {
 		if (highlighter != null) {
 			viewer.removePostRenderPaintable(highlighter);
+			AnimationScheduler.getDefault().remove(highlighter);
 		}
 		highlighter = null;
 		viewer.repaint();
 	}
 
 	public void highlightSubgraph(CoreGraph g) {
+		highlightVertices(getGraph().getSubgraphVertices(g));
+	}
+
+	public void highlightVertices(Collection<Vertex> vertices) {
 		clearHighlight();
-		highlighter = new SubgraphHighlighter(g);
+		highlighter = new SubgraphHighlighter(vertices);
 		viewer.addPostRenderPaintable(highlighter);
+		AnimationScheduler.getDefault().add(viewer, highlighter);
 		viewer.update();
 	}
 
 	public void startRewriting() {
 		abortRewriting();
-		rewriter = new RewriterJob();
-		rewriter.addJobListener(new JobListener() {
+		final Job job = new RewriterJob();
+		rewriter = job;
+		job.addJobListener(new JobListener() {
 			public void jobEnded(JobEndEvent event) {
-				if (rewriter != null) {
+				if (rewriter == job) {
 					rewriter = null;
 				}
 				if (isAttached()) {
@@ -815,8 +1003,8 @@ public class InteractiveGraphView
 				}
 			}
 		});
-		rewriter.start();
-		showJobIndicator("Rewriting...", rewriter);
+		job.start(rewriteExecutor);
+		showJobIndicator("Rewriting...", job);
 		if (isAttached()) {
 			setupNormaliseAction(getViewPort());
 		}
@@ -838,137 +1026,184 @@ public class InteractiveGraphView
 		}
 	}
 
-	private class RewriterJob extends Job {
+	/**
+	 * Brings the view up to date with the rewrites the core has done,
+	 * and highlights the vertices they created.
+	 */
+	private void showRewritesDone() throws CoreException {
+		cacheVertexPositions();
+		Rectangle2D rect = viewer.getGraphBounds();
+		updateGraph(rect);
+		List<Vertex> created = new ArrayList<Vertex>();
+		for (Vertex v : getGraph().getVertices()) {
+			if (!verticesCache.containsKey(v.getCoreName()))
+				created.add(v);
+		}
+		if (created.isEmpty()) {
+			clearHighlight();
+		}
+		else {
+			highlightVertices(created);
+		}
+	}
 
-		private boolean highlight = false;
+	/**
+	 * Rewrites the graph until no more rules apply.
+	 *
+	 * The rewriting is done on a worker thread, which asks the core to
+	 * normalise the graph a few rewrites at a time, so an abort takes
+	 * effect after at most REWRITES_PER_REQUEST more rewrites.  The
+	 * view is brought up to date with the core at most once per frame,
+	 * on the event thread.  While an update is pending, the worker waits
+	 * for it before asking for more rewrites, as the update writes the
+	 * vertex positions back to the core, and a rewrite could remove
+	 * some of those vertices in the meantime.
+	 */
+	private class RewriterJob extends Job {
 
-		private void attachNextRewrite() {
-			try {
-				core.attachOneRewrite(
-					getGraph(),
-					getGraph().getVertices());
-			}
-			catch (CoreException e) {
-				errorDialog(e.getMessage());
-			}
-		}
+		private static final int REWRITES_PER_REQUEST = 20;
 
-		private void invokeHighlightSubgraphAndWait(CoreGraph subgraph)
-			throws InterruptedException {
-			highlight = true;
-			final CoreGraph fSubGraph = subgraph;
-			invokeAndWait(new Runnable() {
+		private final CoreGraph graph = getGraph();
+		private final Object updateLock = new Object();
+		private boolean updatePending = false;
+		private long lastUpdate = 0;
 
-				public void run() {
-					highlightSubgraph(fSubGraph);
+		private final Runnable update = new Runnable() {
+			public void run() {
+				try {
+					if (!isAborted())
+						showRewritesDone();
 				}
-			});
+				catch (CoreException e) {
+					abortJob();
+					errorDialog(e.getMessage());
+				}
+				finally {
+					synchronized (updateLock) {
+						updatePending = false;
+						updateLock.notifyAll();
+					}
+				}
+			}
+		};
+
+		private void requestUpdate() {
+			long now = System.currentTimeMillis();
+			if (now - lastUpdate < FRAME_MILLIS)
+				return;
+			synchronized (updateLock) {
+				if (!updatePending) {
+					updatePending = true;
+					lastUpdate = now;
+					SwingUtilities.invokeLater(update);
+				}
+			}
 		}
 
-		private void invokeApplyRewriteAndWait(int index)
-			throws InterruptedException {
-			highlight = false;
-			final int fIndex = index;
-			invokeAndWait(new Runnable() {
-
-				public void run() {
-					clearHighlight();
-					applyRewrite(fIndex);
-				}
-			});
+		/**
+		 * Waits until any update has been done.
+		 *
+		 * @throws InterruptedException  if the job is aborted meanwhile
+		 */
+		private void waitForUpdate() throws InterruptedException {
+			synchronized (updateLock) {
+				while (updatePending)
+					updateLock.wait();
+			}
 		}
 
-		private void invokeClearHighlightLater() {
-			highlight = false;
+		private void finish(final int count, final String error) {
 			SwingUtilities.invokeLater(new Runnable() {
-
 				public void run() {
+					try {
+						showRewritesDone();
+					}
+					catch (CoreException e) {
+						errorDialog(e.getMessage());
+					}
 					clearHighlight();
+					if (error != null)
+						errorDialog(error);
+					else if (!isAborted())
+						infoDialog("Applied " + count + " rewrites");
 				}
 			});
 		}
 
-		private void invokeInfoDialogAndWait(String message)
-			throws InterruptedException {
-			final String fMessage = message;
-			invokeAndWait(new Runnable() {
-
-				public void run() {
-					infoDialog(fMessage);
-				}
-			});
-		}
-
-		private void invokeAndWait(Runnable runnable)
-			throws InterruptedException {
-			try {
-				SwingUtilities.invokeAndWait(runnable);
-			}
-			catch (InvocationTargetException ex) {
-				ex.printStackTrace();
-			}
-		}
-
-		@Override
 		public void run() {
+			int count = 0;
+			String error = null;
 			try {
-				// FIXME: communicating with the core: is this
-				//        really threadsafe?  Probably not.
-				attachNextRewrite();
-				List<AttachedRewrite<CoreGraph>> rws = getRewrites();
-				int count = 0;
-				Random r = new Random();
-				int rw = 0;
-				while (rws.size() > 0
-					&& !Thread.interrupted()) {
-					rw = r.nextInt(rws.size());
-					invokeHighlightSubgraphAndWait(rws.get(rw).getNewGraph());
-					sleep(1500);
-					invokeApplyRewriteAndWait(rw);	
-					++count;
-					attachNextRewrite();
-					rws = getRewrites();
+				int done = REWRITES_PER_REQUEST;
+				// the graph is normal once the core stops short
+				while (!isAborted() && done == REWRITES_PER_REQUEST) {
+					waitForUpdate();
+					done = core.normaliseInCore(graph, REWRITES_PER_REQUEST, 0);
+					count += done;
+					if (done > 0)
+						requestUpdate();
 				}
-				
-				fireJobFinished();
-				invokeInfoDialogAndWait("Applied " + count + " rewrites");
+			}
+			catch (CoreException e) {
+				error = e.getMessage();
 			}
 			catch (InterruptedException e) {
-				if (highlight) {
-					invokeClearHighlightLater();
-				}
+				// aborted
 			}
+			fireJobFinished();
+			finish(count, error);
 		}
 	}
 
+	/**
+	 * Draws a pulsing highlight over some vertices.
+	 *
+	 * The pulse is driven by the shared AnimationScheduler, and each frame
+	 * only repaints the area the highlight was last painted in.
+	 */
 	private class SubgraphHighlighter
-		implements VisualizationServer.Paintable {
+		implements VisualizationServer.Paintable, AnimationScheduler.Animation {
 
 		Collection<Vertex> verts;
+		Rectangle dirty = null;
 
-		public SubgraphHighlighter(CoreGraph g) {
-			verts = getGraph().getSubgraphVertices(g);
+		public SubgraphHighlighter(Collection<Vertex> verts) {
+			this.verts = verts;
 		}
 
 		public void paint(Graphics g) {
-			Color oldColor = g.getColor();
-			g.setColor(Color.blue);
 			Graphics2D g2 = (Graphics2D) g.create();
+			g2.setColor(Color.blue);
 			float opac = 0.3f + 0.2f * (float) Math.sin(
 				System.currentTimeMillis() / 150.0);
 			g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opac));
 
+			Rectangle area = null;
 			for (Vertex v : verts) {
 				Point2D pt = viewer.getGraphLayout().transform(v);
 				Ellipse2D ell = new Ellipse2D.Double(
 					pt.getX() - 15, pt.getY() - 15, 30, 30);
 				Shape draw = viewer.getRenderContext().getMultiLayerTransformer().transform(ell);
-				((Graphics2D) g2).fill(draw);
+				g2.fill(draw);
+				Rectangle bounds = draw.getBounds();
+				if (area == null) {
+					area = bounds;
+				} else {
+					area.add(bounds);
+				}
 			}
+			if (area != null) {
+				area.grow(1, 1);
+			}
+			dirty = area;
 
 			g2.dispose();
-			g.setColor(oldColor);
-			repaint(10);
+		}
+
+		public void nextFrame() {
+			if (dirty != null) {
+				viewer.repaint(dirty);
+			}
 		}
 
 		public boolean useTransform() {
@@ -1009,7 +1244,6 @@ public class InteractiveGraphView
 			}
 			core.applyAttachedRewrite(getGraph(), index);
 			cacheVertexPositions();
-			getGraph().updateGraph(rewriteCache.get(index).getNewGraph());
 			updateGraph(rewriteRect);
 			smoothLayout.setOrigin(0, 0);
 		}
@@ -1189,6 +1423,7 @@ public class InteractiveGraphView
 					if (outputFile != null) {
 						OutputStream file = new FileOutputStream(outputFile);
                                                 PdfGraphVisualizationServer server = new PdfGraphVisualizationServer(core.getActiveTheory(), getGraph());
+						server.setArrowHeadsShown(QuantoApp.getInstance().getPreference(QuantoApp.DRAW_ARROW_HEADS));
 						server.renderToPdf(file);
 						file.close();
 					}
@@ -1448,9 +1683,7 @@ public class InteractiveGraphView
 					break;
 				//hotkey for force layout
 				case KeyEvent.VK_A:{
-					forceLayout.startModify();
-					viewer.modifyLayout();
-					forceLayout.endModify();
+					relayout();
 					setVerticesPositionData();
 					}
 					break;			
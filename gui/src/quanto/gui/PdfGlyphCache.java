@@ -0,0 +1,126 @@
+package quanto.gui;
+
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.swing.Icon;
+import org.apache.commons.collections15.Transformer;
+import quanto.core.data.Vertex;
+
+/**
+ * Draws each vertex icon into a PDF document only once.
+ *
+ * The first time an icon is painted, it is drawn into a form XObject;
+ * after that, painting it just places that XObject.  A document with
+ * thousands of vertices of a few types then contains a few copies of
+ * the SVG drawing rather than thousands.
+ */
+class PdfGlyphCache {
+	private final PdfWriter writer;
+	private final Map<Icon, PdfTemplate> templates = new IdentityHashMap<Icon, PdfTemplate>();
+	private final Map<Icon, Icon> glyphs = new IdentityHashMap<Icon, Icon>();
+	private PdfContentByte target;
+	private Graphics2D targetGraphics;
+	private float targetHeight;
+
+	public PdfGlyphCache(PdfWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Sets where the icons are being painted.
+	 *
+	 * Icons painted on any other graphics are drawn in full.
+	 *
+	 * @param cb  the content that graphics draws into
+	 * @param graphics  a graphics created by cb.createGraphicsShapes
+	 * @param height  the height passed to createGraphicsShapes
+	 */
+	public void setTarget(PdfContentByte cb, Graphics2D graphics, float height) {
+		this.target = cb;
+		this.targetGraphics = graphics;
+		this.targetHeight = height;
+	}
+
+	public void clearTarget() {
+		target = null;
+		targetGraphics = null;
+	}
+
+	/**
+	 * Wraps a vertex icon transformer so that its icons are painted
+	 * using this cache.
+	 */
+	public Transformer<Vertex, Icon> wrap(final Transformer<Vertex, Icon> icons) {
+		return new Transformer<Vertex, Icon>() {
+			public Icon transform(Vertex v) {
+				Icon icon = icons.transform(v);
+				return icon == null ? null : glyphFor(icon);
+			}
+		};
+	}
+
+	private Icon glyphFor(Icon icon) {
+		Icon glyph = glyphs.get(icon);
+		if (glyph == null) {
+			glyph = new Glyph(icon);
+			glyphs.put(icon, glyph);
+		}
+		return glyph;
+	}
+
+	private PdfTemplate templateFor(Icon icon, Component c) {
+		PdfTemplate template = templates.get(icon);
+		if (template == null) {
+			int w = icon.getIconWidth();
+			int h = icon.getIconHeight();
+			template = writer.getDirectContent().createTemplate(w, h);
+			Graphics2D g = template.createGraphicsShapes(w, h);
+			icon.paintIcon(c, g, 0, 0);
+			g.dispose();
+			templates.put(icon, template);
+		}
+		return template;
+	}
+
+	private class Glyph implements Icon {
+		private final Icon icon;
+
+		Glyph(Icon icon) {
+			this.icon = icon;
+		}
+
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			if (g != targetGraphics || target == null) {
+				icon.paintIcon(c, g, x, y);
+				return;
+			}
+			PdfTemplate template = templateFor(icon, c);
+			// the graphics has y pointing down from the top of the
+			// content, and the template has y pointing up from the
+			// bottom of the icon
+			AffineTransform t = targetGraphics.getTransform();
+			double bottom = y + icon.getIconHeight();
+			double ex = t.getScaleX() * x + t.getShearX() * bottom + t.getTranslateX();
+			double ey = t.getShearY() * x + t.getScaleY() * bottom + t.getTranslateY();
+			target.addTemplate(template,
+					(float) t.getScaleX(), (float) -t.getShearY(),
+					(float) -t.getShearX(), (float) t.getScaleY(),
+					(float) ex, (float) (targetHeight - ey));
+		}
+
+		public int getIconWidth() {
+			return icon.getIconWidth();
+		}
+
+		public int getIconHeight() {
+			return icon.getIconHeight();
+		}
+	}
+}
@@ -11,11 +11,12 @@ import quanto.core.data.Edge;
 import quanto.core.data.CoreGraph;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.graph.util.BalancedEdgeIndexFunction;
 import edu.uci.ics.jung.contrib.visualization.BangBoxGraphVisualizationViewer;
+import edu.uci.ics.jung.contrib.visualization.renderers.BangBoxGraphRenderer;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.Context;
 import edu.uci.ics.jung.visualization.renderers.Renderer.VertexLabel;
@@ -23,9 +24,14 @@ import edu.uci.ics.jung.visualization.transform.shape.GraphicsDecorator;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.Icon;
 import javax.swing.JComponent;
 import org.apache.commons.collections15.Predicate;
+import org.apache.commons.collections15.Transformer;
 import quanto.core.data.BangBox;
 import quanto.gui.graphhelpers.QVertexAngleLabeler;
 import quanto.gui.graphhelpers.QVertexColorTransformer;
@@ -44,6 +50,10 @@ public class PdfGraphVisualizationServer extends
 	private final CoreGraph graph;
 	private final Theory theory;
 	private boolean arrowHeadsShown = false;
+	/**
+	 * How many elements are drawn into each chunk of a page
+	 */
+	private static final int CHUNK_SIZE = 500;
 
 	public PdfGraphVisualizationServer(Theory theory, CoreGraph graph) {
 		this(theory, QuantoApp.useExperimentalLayout ? new JavaQuantoDotLayout(
@@ -74,8 +84,7 @@ public class PdfGraphVisualizationServer extends
 				new Predicate<Context<Graph<Vertex, Edge>, Edge>>() {
 					public boolean evaluate(
 							Context<Graph<Vertex, Edge>, Edge> object) {
-						return QuantoApp.getInstance().getPreference(
-								QuantoApp.DRAW_ARROW_HEADS);
+						return arrowHeadsShown;
 					}
 				});
 
@@ -107,23 +116,102 @@ public class PdfGraphVisualizationServer extends
 		this.arrowHeadsShown = arrowHeadsShown;
 	}
 
-	public void renderToPdf(OutputStream output) throws DocumentException {
+	/**
+	 * The size of a page that fits the graph under its current layout
+	 */
+	public com.itextpdf.text.Rectangle getPageSize() {
 		Rectangle2D bounds = getGraphBounds();
-		final int width = (int) (bounds.getMaxX()) + 20;
-		final int height = (int) (bounds.getMaxY()) + 20;
+		return new com.itextpdf.text.Rectangle((int) (bounds.getMaxX()) + 20,
+				(int) (bounds.getMaxY()) + 20);
+	}
 
-		Document doc = new Document(new com.itextpdf.text.Rectangle(width,
-				height));
+	public void renderToPdf(OutputStream output) throws DocumentException, IOException {
+		renderToPdf(Collections.singletonList(this), output);
+	}
 
+	/**
+	 * Renders several graphs into one document, one graph per page.
+	 *
+	 * Each vertex icon is only stored once in the document, however
+	 * many pages it is used on.
+	 */
+	public static void renderToPdf(List<PdfGraphVisualizationServer> servers,
+			OutputStream output) throws DocumentException, IOException {
+		if (servers.isEmpty()) {
+			throw new IllegalArgumentException("No graphs to render");
+		}
+		Document doc = new Document(servers.get(0).getPageSize());
 		PdfWriter writer = PdfWriter.getInstance(doc, output);
+		writer.setFullCompression();
 
 		doc.open();
+		PdfGlyphCache glyphs = new PdfGlyphCache(writer);
+		for (int i = 0; i < servers.size(); ++i) {
+			if (i > 0) {
+				doc.setPageSize(servers.get(i).getPageSize());
+				doc.newPage();
+			}
+			servers.get(i).renderPage(writer, glyphs);
+			// keep the page even if the graph is empty
+			writer.setPageEmpty(false);
+		}
+		doc.close();
+	}
 
-		PdfContentByte cb = writer.getDirectContent();
-		Graphics2D g2 = cb.createGraphicsShapes(width, height);
+	/**
+	 * Draws a number of elements into a template, which is written out
+	 * (and its memory released) as soon as it is full, so that the
+	 * document never holds more than one chunk of the drawing.
+	 */
+	private class ChunkWriter {
+		private final PdfWriter writer;
+		private final PdfGlyphCache glyphs;
+		private final int width;
+		private final int height;
+		private PdfTemplate chunk;
+		private Graphics2D g2;
+		private int count = 0;
 
-		GraphicsDecorator pdfGr = new GraphicsDecorator(g2);
-		getRenderContext().setGraphicsContext(pdfGr);
+		ChunkWriter(PdfWriter writer, PdfGlyphCache glyphs, int width, int height) {
+			this.writer = writer;
+			this.glyphs = glyphs;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * Call before drawing each element
+		 */
+		void next() throws IOException {
+			if (count == CHUNK_SIZE) {
+				flush();
+			}
+			if (chunk == null) {
+				chunk = writer.getDirectContent().createTemplate(width, height);
+				g2 = chunk.createGraphicsShapes(width, height);
+				getRenderContext().setGraphicsContext(new GraphicsDecorator(g2));
+				glyphs.setTarget(chunk, g2, height);
+			}
+			++count;
+		}
+
+		void flush() throws IOException {
+			if (chunk != null) {
+				glyphs.clearTarget();
+				g2.dispose();
+				writer.getDirectContent().addTemplate(chunk, 0, 0);
+				writer.releaseTemplate(chunk);
+				chunk = null;
+				g2 = null;
+			}
+			count = 0;
+		}
+	}
+
+	private void renderPage(PdfWriter writer, PdfGlyphCache glyphs) throws IOException {
+		com.itextpdf.text.Rectangle page = getPageSize();
+		final int width = (int) page.getWidth();
+		final int height = (int) page.getHeight();
 
 		// create a virtual screen so Jung doesn't freak
 		JComponent virtual = new JComponent() {
@@ -135,12 +223,37 @@ public class PdfGraphVisualizationServer extends
 				return new Dimension(width, height);
 			}
 		};
-
 		getRenderContext().setScreenDevice(virtual);
-		getRenderer().render(getRenderContext(), getGraphLayout());
 
-		g2.dispose();
-		doc.close();
+		Transformer<Vertex, Icon> icons = getRenderContext().getVertexIconTransformer();
+		getRenderContext().setVertexIconTransformer(glyphs.wrap(icons));
+		ChunkWriter out = new ChunkWriter(writer, glyphs, width, height);
+		BangBoxGraphRenderer<Vertex, Edge, BangBox> renderer = getRenderer();
+		Layout<Vertex, Edge> layout = getGraphLayout();
+		try {
+			synchronized (graph) {
+				// the same order as BasicBangBoxGraphRenderer: !-boxes,
+				// then edges, then vertices
+				for (BangBox b : graph.getBangBoxes()) {
+					out.next();
+					renderer.renderBangBox(getRenderContext(), layout, b);
+				}
+				for (Edge e : graph.getEdges()) {
+					out.next();
+					renderer.renderEdge(getRenderContext(), layout, e);
+					renderer.renderEdgeLabel(getRenderContext(), layout, e);
+				}
+				for (Vertex v : graph.getVertices()) {
+					out.next();
+					renderer.renderVertex(getRenderContext(), layout, v);
+					renderer.renderVertexLabel(getRenderContext(), layout, v);
+				}
+			}
+			out.flush();
+		} finally {
+			glyphs.clearTarget();
+			getRenderContext().setVertexIconTransformer(icons);
+		}
 	}
 
 	/**
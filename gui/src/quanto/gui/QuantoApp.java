@@ -165,6 +165,8 @@ public class QuantoApp {
             new BoolPref("new_window_for_graphs", false, "Open graphs in a new window");
     public static final BoolPref SHOW_INTERNAL_NAMES =
             new BoolPref("show_internal_names", false, "Show internal graph names");
+    public static final BoolPref PARALLEL_LAYOUT =
+            new BoolPref("parallel_layout", true, "Lay out large graphs on several threads");
     public static final StringPref[] LAST_OPEN_DIRS = {new StringPref("last_open_dir", null),
         new StringPref("last_open_ruleset_dir", null),
         new StringPref("last_open_theory_dir", null)};
@@ -241,7 +243,8 @@ public class QuantoApp {
 
         logger.log(Level.FINER, "Starting quantomatic");
         boolean mathematicaMode = false;
-        for (String arg : args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
             if (arg.equals("--app-mode")) {
                 String appName = "Quantomatic.app";
 
@@ -264,13 +267,21 @@ public class QuantoApp {
                         appName + "/Contents/MacOS/dot_static";
                 ProtocolManager.quantoCoreExecutable =
                         appName + "/Contents/MacOS/quanto-core-app";
+            } else if (arg.equals("--external-dot")) {
+                edu.uci.ics.jung.contrib.algorithms.layout.AbstractDotLayout.useDotProgram = true;
             } else if (arg.equals("--mathematica-mode")) {
                 mathematicaMode = true;
                 logger.log(Level.FINER, "Mathematica mode enabled");
+            } else if (arg.equals("--protocol-metrics") && i + 1 < args.length) {
+                ProtocolManager.metricsDumpFile = args[++i];
+                logger.log(Level.FINER, "Writing protocol metrics to {0}",
+                        ProtocolManager.metricsDumpFile);
             }
         }
-        logger.log(Level.FINE, "Using dot executable: {0}",
-                edu.uci.ics.jung.contrib.algorithms.layout.AbstractDotLayout.dotProgram);
+        if (edu.uci.ics.jung.contrib.algorithms.layout.AbstractDotLayout.useDotProgram) {
+            logger.log(Level.FINE, "Using dot executable: {0}",
+                    edu.uci.ics.jung.contrib.algorithms.layout.AbstractDotLayout.dotProgram);
+        }
         logger.log(Level.FINE, "Using core executable: {0}",
                 ProtocolManager.quantoCoreExecutable);
 
@@ -0,0 +1,408 @@
+package quanto.gui;
+
+import com.itextpdf.text.DocumentException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.xml.sax.SAXException;
+import quanto.core.Core;
+import quanto.core.CoreException;
+import quanto.core.CorePool;
+import quanto.core.data.CoreGraph;
+import quanto.core.protocol.ProtocolManager;
+import quanto.core.xml.TheoryParser;
+
+/**
+ * Normalises and exports a directory of graph files without starting the
+ * GUI, spreading the graphs over several core processes.
+ *
+ * Usage: QuantoBatch [options] theory.qth ruleset.rules directory
+ */
+public class QuantoBatch {
+
+    private final static Logger logger = Logger.getLogger("quanto.gui.batch");
+
+    /**
+     * The things that can be written out for each graph
+     */
+    public enum Format {
+
+        Pdf(".pdf"),
+        Tikz(".tikz"),
+        Graph(".graph"),
+        Plain("-hilbert.txt"),
+        Latex("-hilbert.tex"),
+        Mathematica("-mathematica.txt"),
+        Matlab("-matlab.m");
+        private final String suffix;
+
+        Format(String suffix) {
+            this.suffix = suffix;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+    }
+
+    private final CorePool pool;
+    private final File outputDirectory;
+    private final Set<Format> formats;
+    private boolean normalising = true;
+    private int timeoutMillis = 0;
+    private boolean arrowHeadsShown = false;
+    private File combinedPdf = null;
+    // the graphs waiting to be written to combinedPdf
+    private final Map<File, PdfGraphVisualizationServer> pages =
+            Collections.synchronizedMap(new HashMap<File, PdfGraphVisualizationServer>());
+    // the vertex icons are shared between graphs, and SVG rendering is
+    // not thread-safe
+    private final Object renderLock = new Object();
+
+    public QuantoBatch(CorePool pool, File outputDirectory, Set<Format> formats) {
+        this.pool = pool;
+        this.outputDirectory = outputDirectory;
+        this.formats = EnumSet.copyOf(formats);
+    }
+
+    public void setNormalising(boolean normalising) {
+        this.normalising = normalising;
+    }
+
+    /**
+     * @param timeoutMillis  how long to spend normalising each graph, or
+     *                       0 for no limit
+     */
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void setArrowHeadsShown(boolean arrowHeadsShown) {
+        this.arrowHeadsShown = arrowHeadsShown;
+    }
+
+    /**
+     * Writes the PDF output for all the graphs, one per page, to a
+     * single file rather than one file per graph.
+     *
+     * The laid-out graphs are kept until they have all been processed.
+     *
+     * @param combinedPdf  the file, or null to write separate files
+     */
+    public void setCombinedPdf(File combinedPdf) {
+        this.combinedPdf = combinedPdf;
+    }
+
+    private File outputFile(File input, Format format) {
+        String name = input.getName();
+        if (name.endsWith(".graph")) {
+            name = name.substring(0, name.length() - ".graph".length());
+        }
+        return new File(outputDirectory, name + format.getSuffix());
+    }
+
+    private static void writeString(File file, String contents) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void export(Core core, CoreGraph graph, File input, Format format)
+            throws CoreException, IOException {
+        File output = outputFile(input, format);
+        switch (format) {
+            case Pdf: {
+                PdfGraphVisualizationServer server =
+                        new PdfGraphVisualizationServer(core.getActiveTheory(),
+                        new QuantoDotLayout(graph));
+                server.setArrowHeadsShown(arrowHeadsShown);
+                if (combinedPdf != null) {
+                    pages.put(input, server);
+                    break;
+                }
+                OutputStream out = new FileOutputStream(output);
+                try {
+                    synchronized (renderLock) {
+                        server.renderToPdf(out);
+                    }
+                } catch (DocumentException ex) {
+                    throw new IOException("Could not generate PDF: " + ex.getMessage());
+                } finally {
+                    out.close();
+                }
+                break;
+            }
+            case Tikz: {
+                QuantoDotLayout layout = new QuantoDotLayout(graph);
+                layout.initialize();
+                writeString(output, TikzOutput.generate(graph, layout, arrowHeadsShown));
+                break;
+            }
+            case Graph:
+                core.saveGraph(graph, output);
+                break;
+            case Plain:
+                writeString(output, core.hilbertSpaceRepresentation(graph,
+                        Core.RepresentationType.Plain));
+                break;
+            case Latex:
+                writeString(output, core.hilbertSpaceRepresentation(graph,
+                        Core.RepresentationType.Latex));
+                break;
+            case Mathematica:
+                writeString(output, core.hilbertSpaceRepresentation(graph,
+                        Core.RepresentationType.Mathematica));
+                break;
+            case Matlab:
+                writeString(output, core.hilbertSpaceRepresentation(graph,
+                        Core.RepresentationType.Matlab));
+                break;
+        }
+    }
+
+    /**
+     * Normalises and exports a single graph file, using one of the cores
+     * in the pool.
+     */
+    public Future<Void> submit(final File input) {
+        return pool.submit(new CorePool.Task<Void>() {
+
+            public Void run(Core core) throws CoreException {
+                try {
+                    CoreGraph graph = core.loadGraph(input);
+                    try {
+                        if (normalising) {
+                            core.normalise(graph, 0, timeoutMillis);
+                        }
+                        for (Format format : formats) {
+                            export(core, graph, input, format);
+                        }
+                    } finally {
+                        core.forgetGraph(graph);
+                    }
+                } catch (IOException ex) {
+                    throw new CoreException(input + ": " + ex.getMessage(), ex);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Processes every graph file, waiting for them all to finish.
+     *
+     * @return the number of graphs that could not be processed
+     */
+    public int processAll(List<File> inputs) throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(inputs.size());
+        for (File input : inputs) {
+            futures.add(submit(input));
+        }
+        int failures = 0;
+        for (int i = 0; i < inputs.size(); ++i) {
+            try {
+                futures.get(i).get();
+                logger.log(Level.FINE, "Processed {0}", inputs.get(i));
+            } catch (ExecutionException ex) {
+                ++failures;
+                Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                System.err.println(inputs.get(i).getName() + ": " + cause.getMessage());
+                logger.log(Level.FINE, "Failed to process " + inputs.get(i), cause);
+            }
+        }
+        if (combinedPdf != null && !pages.isEmpty()) {
+            List<PdfGraphVisualizationServer> servers =
+                    new ArrayList<PdfGraphVisualizationServer>(pages.size());
+            for (File input : inputs) {
+                if (pages.containsKey(input)) {
+                    servers.add(pages.get(input));
+                }
+            }
+            pages.clear();
+            try {
+                OutputStream out = new FileOutputStream(combinedPdf);
+                try {
+                    PdfGraphVisualizationServer.renderToPdf(servers, out);
+                } finally {
+                    out.close();
+                }
+            } catch (DocumentException ex) {
+                ++failures;
+                System.err.println(combinedPdf.getName() + ": Could not generate PDF: " + ex.getMessage());
+            } catch (IOException ex) {
+                ++failures;
+                System.err.println(combinedPdf.getName() + ": " + ex.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * The graph files in a directory, in name order
+     */
+    public static List<File> listGraphFiles(File directory) throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".graph");
+            }
+        });
+        if (files == null) {
+            throw new IOException("Could not read the directory " + directory);
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: QuantoBatch [options] THEORY RULESET DIRECTORY");
+        System.err.println();
+        System.err.println("Normalises every .graph file in DIRECTORY and exports the results.");
+        System.err.println();
+        System.err.println("Options:");
+        System.err.println("  --output DIR       write the results to DIR (default: DIRECTORY/batch-output)");
+        System.err.println("  --cores N          run N core processes (default: one per processor)");
+        System.err.println("  --format FORMAT    pdf, tikz, graph, plain, latex, mathematica or matlab;");
+        System.err.println("                     may be given more than once (default: pdf)");
+        System.err.println("  --no-normalise     only export the graphs");
+        System.err.println("  --timeout SECONDS  stop normalising a graph after this long");
+        System.err.println("  --arrow-heads      draw arrow heads on directed edges");
+        System.err.println("  --single-pdf FILE  write the PDF output to FILE, one graph per page");
+        System.err.println("  --external-dot     lay out graphs with the dot program");
+        System.err.println("  --core PATH        the core executable to run");
+        System.err.println("  --protocol-metrics FILE");
+        System.err.println("                     append timings of each core's requests to FILE");
+    }
+
+    private static Format parseFormat(String name) {
+        for (Format format : Format.values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format \"" + name + "\"");
+    }
+
+    public static void main(String[] args) {
+        // must be set before any AWT class is loaded
+        System.setProperty("java.awt.headless", "true");
+
+        File outputDirectory = null;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Set<Format> formats = EnumSet.noneOf(Format.class);
+        boolean normalising = true;
+        int timeoutMillis = 0;
+        boolean arrowHeads = false;
+        File combinedPdf = null;
+        List<String> positional = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                String arg = args[i];
+                if (arg.equals("--output") && i + 1 < args.length) {
+                    outputDirectory = new File(args[++i]);
+                } else if (arg.equals("--cores") && i + 1 < args.length) {
+                    cores = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--format") && i + 1 < args.length) {
+                    formats.add(parseFormat(args[++i]));
+                } else if (arg.equals("--no-normalise")) {
+                    normalising = false;
+                } else if (arg.equals("--timeout") && i + 1 < args.length) {
+                    timeoutMillis = Integer.parseInt(args[++i]) * 1000;
+                } else if (arg.equals("--arrow-heads")) {
+                    arrowHeads = true;
+                } else if (arg.equals("--single-pdf") && i + 1 < args.length) {
+                    combinedPdf = new File(args[++i]);
+                } else if (arg.equals("--external-dot")) {
+                    edu.uci.ics.jung.contrib.algorithms.layout.AbstractDotLayout.useDotProgram = true;
+                } else if (arg.equals("--core") && i + 1 < args.length) {
+                    ProtocolManager.quantoCoreExecutable = args[++i];
+                } else if (arg.equals("--protocol-metrics") && i + 1 < args.length) {
+                    ProtocolManager.metricsDumpFile = args[++i];
+                } else if (arg.equals("--help")) {
+                    usage();
+                    return;
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option \"" + arg + "\"");
+                } else {
+                    positional.add(arg);
+                }
+            }
+            if (positional.size() != 3) {
+                throw new IllegalArgumentException("Expected a theory, a ruleset and a directory");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+            System.exit(2);
+        }
+        if (formats.isEmpty() || combinedPdf != null) {
+            formats.add(Format.Pdf);
+        }
+        File theoryFile = new File(positional.get(0));
+        File rulesetFile = new File(positional.get(1));
+        File inputDirectory = new File(positional.get(2));
+        if (outputDirectory == null) {
+            outputDirectory = new File(inputDirectory, "batch-output");
+        }
+
+        CorePool pool = null;
+        int failures;
+        try {
+            List<File> inputs = listGraphFiles(inputDirectory);
+            if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                throw new IOException("Could not create the directory " + outputDirectory);
+            }
+            TheoryParser theory = new TheoryParser(theoryFile.getAbsolutePath());
+            pool = new CorePool(theory.getImplementedTheoryName(),
+                    theory.getTheoryVertices(), Math.min(cores, Math.max(inputs.size(), 1)));
+            pool.loadRuleset(rulesetFile);
+
+            QuantoBatch batch = new QuantoBatch(pool, outputDirectory, formats);
+            batch.setNormalising(normalising);
+            batch.setTimeout(timeoutMillis);
+            batch.setArrowHeadsShown(arrowHeads);
+            batch.setCombinedPdf(combinedPdf);
+            long start = System.currentTimeMillis();
+            failures = batch.processAll(inputs);
+            System.err.println(String.format("Processed %1$d graphs in %2$.1fs; %3$d failed",
+                    inputs.size(),
+                    (System.currentTimeMillis() - start) / 1000.0,
+                    failures));
+        } catch (SAXException ex) {
+            System.err.println("Could not parse the theory file: " + ex.getMessage());
+            failures = -1;
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            failures = -1;
+        } catch (CoreException ex) {
+            System.err.println("Core error: " + ex.getMessage());
+            failures = -1;
+        } catch (InterruptedException ex) {
+            failures = -1;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
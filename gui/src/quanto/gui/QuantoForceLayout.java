@@ -2,8 +2,14 @@ package quanto.gui;
 
 import java.awt.Dimension;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 import org.apache.commons.collections15.Transformer;
@@ -17,12 +23,28 @@ import edu.uci.ics.jung.algorithms.layout.AbstractLayout;
 import edu.uci.ics.jung.algorithms.layout.util.Relaxer;
 import edu.uci.ics.jung.algorithms.layout.util.VisRunner;
 import edu.uci.ics.jung.algorithms.util.IterativeContext;
+import edu.uci.ics.jung.contrib.algorithms.layout.ParallelForceEngine;
+import edu.uci.ics.jung.contrib.graph.CompactDirectedMultigraph;
 import edu.uci.ics.jung.graph.DirectedGraph;
 
 public class QuantoForceLayout extends AbstractLayout<Vertex, Edge> implements IterativeContext
 {
 
-    protected Map<Vertex, Point2D> vertexVelocities;
+    private static final double REPULSION = 200;
+    private static final double ATTRACTION = 0.06;
+    private static final int MAX_STEPS = 10000;
+    // how often to check whether the layout has settled; see checkSettled()
+    private static final int SETTLE_STEPS = 100;
+    // the layout has also settled once the moves shrink by less than this
+    // fraction from one check to the next
+    private static final double MIN_IMPROVEMENT = 0.05;
+    // the most steps an incremental layout does; see relaxAround()
+    private static final int INCREMENTAL_STEPS = 500;
+    // how far from the changed vertices an incremental layout looks
+    private static final double NEIGHBOURHOOD_RADIUS = 160;
+    // spreads out vertices placed around the same point
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
     protected double vertexSpacing = 20.0;
     private double damping = 0.65;
     private double timestep = 0.01;
@@ -30,12 +52,39 @@ public class QuantoForceLayout extends AbstractLayout<Vertex, Edge> implements I
     private boolean modify;
     CoreGraph gr;
 
+    // use the Barnes-Hut approximation for graphs with at least this many vertices
+    private int barnesHutThreshold = 100;
+    private double barnesHutTheta = 0.8;
+    // stop once no vertex has moved this many pixels in SETTLE_STEPS steps
+    private double settleDistance = 1.0;
+    private boolean settled;
+    private double windowMove;
+    private double lastWindowMove = Double.POSITIVE_INFINITY;
+    private int windowSteps;
+    private final ParallelForceEngine engine;
+
+    // the state of the layout, indexed by vertex; see indexVertices()
+    private int vertexCount;
+    private Vertex[] vertices = new Vertex[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private double[] vxs = new double[0];
+    private double[] vys = new double[0];
+    private boolean[] locked = new boolean[0];
+    private int[][] successors = new int[0][];
+    private Collection<Vertex> changedVertices = null;
+    // the graph the arrays were last filled in from, and its modCount then;
+    // null if the arrays hold only some of the vertices
+    private CompactDirectedMultigraph<Vertex, Edge> indexedGraph = null;
+    private int indexedModCount;
+
     protected QuantoForceLayout(DirectedGraph<Vertex, Edge> graph, Transformer<Vertex, Point2D> initializer,
             double vertexSpacing) {
         super(graph, new Dimension((int) Math.ceil(2 * vertexSpacing), (int) Math.ceil(2 * vertexSpacing)));
         setInitializer(initializer);
-        vertexVelocities = new HashMap<Vertex, Point2D>();
         modify = true;
+        engine = new ParallelForceEngine(REPULSION, ATTRACTION, timestep, damping);
+        engine.setMinCoordinate(20);
     }
 
     public QuantoForceLayout(CoreGraph graph, QuantoDotLayout quantoDotLayout) {
@@ -75,50 +124,183 @@ public class QuantoForceLayout extends AbstractLayout<Vertex, Edge> implements I
         }
     }
 
-    protected Point2D coulombRepulsion(Vertex v1, Vertex v2) {
-        Point2D p1 = locations.get(v1);
-        Point2D p2 = locations.get(v2);
-        double distSq = (p1.getX() - p2.getX()) * (p1.getX() - p2.getX())
-                + (p1.getY() - p2.getY()) * (p1.getY() - p2.getY());
-        return new Point2D.Double(200 * (p1.getX() - p2.getX()) / distSq, 200 * (p1.getY() - p2.getY()) / distSq);
+    @Override
+    public void setLocation(Vertex picked, double x, double y) {
+        x = Math.max(x, 20);
+        y = Math.max(y, 20);
+        super.setLocation(picked, x, y);
+        if (x + vertexSpacing > size.width) {
+            size.width = (int) Math.ceil(x + vertexSpacing);
+        }
+        if (y + vertexSpacing > size.height) {
+            size.height = (int) Math.ceil(y + vertexSpacing);
+        }
     }
 
-    protected Point2D hookeAttraction(Vertex v1, Vertex v2) {
-        Point2D p1 = locations.get(v1);
-        Point2D p2 = locations.get(v2);
-        double atr = 0.06;
-        return new Point2D.Double(atr * (p1.getX() - p2.getX()), atr * (p1.getY() - p2.getY()));
+    /**
+     * Use the Barnes-Hut approximation for the repulsion between vertices
+     * in graphs with at least this many vertices.
+     *
+     * @param threshold  the number of vertices, or 0 to always use the
+     *                   approximation
+     */
+    public void setBarnesHutThreshold(int threshold) {
+        this.barnesHutThreshold = threshold;
     }
 
-    public void step() {
-        done++;
-        for (Vertex v : graph.getVertices()) {
-            if (!isLocked(v)) {
-                Point2D netForce = new Point2D.Double(0, 0);
-                vertexVelocities.put(v, new Point2D.Double(0, 0));
-                for (Vertex u : graph.getVertices()) {
-                    if (v != u) {
-                        Point2D q = coulombRepulsion(u, v);
-                        netForce.setLocation(netForce.getX() - q.getX(), netForce.getY() - q.getY());
-                    }
-                }
-                for (Vertex u : graph.getSuccessors(v)) {
-                    Point2D q = hookeAttraction(u, v);
-                    netForce.setLocation(netForce.getX() + q.getX(), netForce.getY() + q.getY());
+    /**
+     * The layout is considered finished once no vertex has moved more
+     * than this many pixels over the last few steps.
+     */
+    public void setSettleDistance(double pixels) {
+        this.settleDistance = pixels;
+    }
+
+    /**
+     * Whether to lay out large graphs on several threads.  This does not
+     * change the result, only how long it takes.
+     */
+    public void setParallel(boolean parallel) {
+        engine.setParallel(parallel);
+    }
+
+    public boolean isParallel() {
+        return engine.isParallel();
+    }
+
+    /*
+     * Copies the positions of the vertices and the successor relation into
+     * arrays, reusing the old arrays where possible.  The successors are
+     * only worked out again if the graph has changed since the last call.
+     */
+    @SuppressWarnings("unchecked")
+    private void indexVertices() {
+        if (graph == indexedGraph && indexedGraph.getModCount() == indexedModCount) {
+            for (int i = 0; i < vertexCount; ++i) {
+                Point2D p = transform(vertices[i]);
+                xs[i] = p.getX();
+                ys[i] = p.getY();
+                locked[i] = isLocked(vertices[i]);
+            }
+            return;
+        }
+        indexVertices(graph.getVertices(), null);
+        if (graph instanceof CompactDirectedMultigraph) {
+            indexedGraph = (CompactDirectedMultigraph<Vertex, Edge>) graph;
+            indexedModCount = indexedGraph.getModCount();
+        }
+    }
+
+    /*
+     * As indexVertices(), but for only some of the vertices.  If movable
+     * is not null, only the vertices in it are moved, and it should be
+     * a subset of vertices (along with their successors).
+     */
+    private void indexVertices(Collection<Vertex> subset, Set<Vertex> movable) {
+        indexedGraph = null;
+        vertexCount = subset.size();
+        if (vertices.length < vertexCount) {
+            int cap = Math.max(vertexCount, vertices.length * 2);
+            vertices = new Vertex[cap];
+            xs = new double[cap];
+            ys = new double[cap];
+            vxs = new double[cap];
+            vys = new double[cap];
+            locked = new boolean[cap];
+            successors = new int[cap][];
+        }
+        Map<Vertex, Integer> index = new HashMap<Vertex, Integer>(vertexCount * 2);
+        int i = 0;
+        for (Vertex v : subset) {
+            Point2D p = transform(v);
+            vertices[i] = v;
+            xs[i] = p.getX();
+            ys[i] = p.getY();
+            locked[i] = movable == null ? isLocked(v) : !movable.contains(v);
+            index.put(v, i);
+            ++i;
+        }
+        for (i = 0; i < vertexCount; ++i) {
+            int[] succ = successors[i];
+            // the successors of a fixed vertex are never looked at
+            int count = locked[i] && movable != null ? 0 : graph.getSuccessorCount(vertices[i]);
+            if (succ == null || succ.length != count) {
+                succ = new int[count];
+                successors[i] = succ;
+            }
+            if (count > 0) {
+                int j = 0;
+                for (Vertex u : graph.getSuccessors(vertices[i])) {
+                    succ[j++] = index.get(u);
                 }
-                Point2D p = vertexVelocities.get(v);
-                vertexVelocities.put(v, new Point2D.Double((p.getX() + netForce.getX() * timestep) * damping,
-                        (p.getY() + netForce.getY() * timestep) * damping));
-                p = vertexVelocities.get(v);
-                Point2D q = locations.get(v);
-                Point2D r = new Point2D.Double(q.getX() + p.getX() * timestep, q.getY() + p.getY() * timestep);
-                setLocation(v, r);
             }
         }
     }
 
+    /*
+     * Moves every unlocked vertex once, using the arrays filled in by
+     * indexVertices().
+     */
+    private void relax() {
+        engine.setBarnesHut(barnesHutThreshold, barnesHutTheta);
+        double maxMove = engine.step(xs, ys, vxs, vys, locked, successors, vertexCount);
+        int moving = 0;
+        for (int i = 0; i < vertexCount; ++i) {
+            if (!locked[i]) {
+                setLocation(vertices[i], xs[i], ys[i]);
+                ++moving;
+            }
+        }
+        checkSettled(maxMove, moving);
+    }
+
+    /*
+     * Decides whether the layout has settled, given how far the
+     * furthest-moving vertex went this step.  A single step moves the
+     * vertices very little, so the moves are added up over SETTLE_STEPS
+     * steps before being compared with settleDistance.  Large graphs tend
+     * to keep drifting apart slowly rather than coming to rest, so the
+     * layout is also finished once the moves stop getting smaller.
+     */
+    private void checkSettled(double maxMove, int moving) {
+        if (moving == 0) {
+            settled = true;
+            return;
+        }
+        windowMove += maxMove;
+        if (++windowSteps == SETTLE_STEPS) {
+            settled = windowMove < settleDistance
+                    || windowMove > lastWindowMove * (1 - MIN_IMPROVEMENT);
+            lastWindowMove = windowMove;
+            windowMove = 0;
+            windowSteps = 0;
+        }
+    }
+
+    private void startRelaxing() {
+        done = 0;
+        settled = false;
+        windowMove = 0;
+        lastWindowMove = Double.POSITIVE_INFINITY;
+        windowSteps = 0;
+    }
+
+    public void step() {
+        done++;
+        indexVertices();
+        relax();
+    }
+
     public boolean done() {
-        return done > 10000;
+        return done > MAX_STEPS || settled;
+    }
+
+    /**
+     * The number of steps the last layout took, which is less than the
+     * limit if the layout settled.
+     */
+    public int getStepCount() {
+        return done;
     }
 
     protected boolean isWorkToDo() {
@@ -132,9 +314,116 @@ public class QuantoForceLayout extends AbstractLayout<Vertex, Edge> implements I
         recalculateSize();
     }
 
+    /**
+     * Makes the next reset() outside of modify mode lay out only these
+     * vertices, using relaxAround(), rather than the whole graph.
+     *
+     * @param changed  the vertices that have been added, or null for a
+     *                 full layout
+     */
+    public void setChangedVertices(Collection<Vertex> changed) {
+        this.changedVertices = changed;
+    }
+
+    /*
+     * Places each vertex at the centre of its neighbours that already
+     * have positions, working outwards from those; vertices with no
+     * such neighbours keep the positions they have.
+     */
+    private void warmStart(Set<Vertex> unplaced) {
+        unplaced = new HashSet<Vertex>(unplaced);
+        List<Vertex> placed = new ArrayList<Vertex>();
+        int k = 0;
+        do {
+            placed.clear();
+            for (Vertex v : unplaced) {
+                double x = 0;
+                double y = 0;
+                int n = 0;
+                for (Vertex u : graph.getNeighbors(v)) {
+                    if (!unplaced.contains(u)) {
+                        Point2D p = transform(u);
+                        x += p.getX();
+                        y += p.getY();
+                        ++n;
+                    }
+                }
+                if (n > 0) {
+                    double angle = GOLDEN_ANGLE * k++;
+                    setLocation(v, x / n + vertexSpacing * Math.cos(angle),
+                            y / n + vertexSpacing * Math.sin(angle));
+                    placed.add(v);
+                }
+            }
+            unplaced.removeAll(placed);
+        } while (!placed.isEmpty() && !unplaced.isEmpty());
+    }
+
+    /**
+     * Lays out some vertices, without moving any others.
+     *
+     * The vertices are first placed near their neighbours, and then the
+     * layout is relaxed using only those vertices, their successors and
+     * the vertices near them, for at most maxSteps steps.  This is much
+     * cheaper than a full layout when a few vertices have been added to
+     * a large graph, such as after a rewrite.
+     *
+     * @param changed  the vertices to lay out; locked vertices are not moved
+     * @param maxSteps  the most steps to do
+     */
+    public void relaxAround(Collection<Vertex> changed, int maxSteps) {
+        Set<Vertex> moving = new HashSet<Vertex>();
+        for (Vertex v : changed) {
+            if (graph.containsVertex(v) && !isLocked(v)) {
+                moving.add(v);
+            }
+        }
+        if (moving.isEmpty()) {
+            return;
+        }
+        warmStart(moving);
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        Set<Vertex> region = new LinkedHashSet<Vertex>(moving);
+        for (Vertex v : moving) {
+            Point2D p = transform(v);
+            minX = Math.min(minX, p.getX());
+            minY = Math.min(minY, p.getY());
+            maxX = Math.max(maxX, p.getX());
+            maxY = Math.max(maxY, p.getY());
+            region.addAll(graph.getSuccessors(v));
+        }
+        minX -= NEIGHBOURHOOD_RADIUS;
+        minY -= NEIGHBOURHOOD_RADIUS;
+        maxX += NEIGHBOURHOOD_RADIUS;
+        maxY += NEIGHBOURHOOD_RADIUS;
+        for (Vertex v : graph.getVertices()) {
+            Point2D p = transform(v);
+            if (p.getX() >= minX && p.getX() <= maxX
+                    && p.getY() >= minY && p.getY() <= maxY) {
+                region.add(v);
+            }
+        }
+
+        indexVertices(region, moving);
+        startRelaxing();
+        while (done < maxSteps && !settled) {
+            done++;
+            relax();
+        }
+    }
+
     public void reset() {
         recalculateSize();
-        if (modify) {
+        if (!modify && changedVertices != null) {
+            Collection<Vertex> changed = changedVertices;
+            changedVertices = null;
+            relaxAround(changed, INCREMENTAL_STEPS);
+            recalculateSize();
+        } else if (modify) {
             int i = 1;
             Point2D p = new Point2D.Double(0, 0);
             for (Vertex v : graph.getVertices()) {
@@ -149,12 +438,11 @@ public class QuantoForceLayout extends AbstractLayout<Vertex, Edge> implements I
                 return;
             }
             beginLayout();
-            for (Vertex v : graph.getVertices()) {
-                vertexVelocities.put(v, new Point2D.Double(0, 0));
-            }
-            done = 0;
+            startRelaxing();
+            indexVertices();
             while (!done()) {
-                step();
+                done++;
+                relax();
             }
             endLayout();
             recalculateSize();
@@ -88,7 +88,8 @@ public class QuantoFrame extends JFrame implements ViewPortHost {
     {
         DrawArrowHeads("draw-arrow-heads-command", QuantoApp.DRAW_ARROW_HEADS),
         ShowInternalGraphNames("internal-graph-names-command", QuantoApp.SHOW_INTERNAL_NAMES),
-        OpenInNewWindow("open-in-new-window-command", QuantoApp.NEW_WINDOW_FOR_GRAPHS);
+        OpenInNewWindow("open-in-new-window-command", QuantoApp.NEW_WINDOW_FOR_GRAPHS),
+        ParallelLayout("parallel-layout-command", QuantoApp.PARALLEL_LAYOUT);
 
         /**
          * Create a boolean preference action
@@ -7,17 +7,32 @@ package quanto.gui.graphhelpers;
 import javax.swing.Icon;
 import org.apache.commons.collections15.Transformer;
 import quanto.core.data.Vertex;
+import quanto.core.data.VertexVisualizationData;
 
 /**
  *
  * @author alemer
  */
 public class QVertexIconTransformer implements Transformer<Vertex, Icon> {
+	private final boolean rasterize;
+
+	/**
+	 * @param rasterize  whether to use cached bitmaps of the icons; this
+	 *                   is faster, but should not be used for vector output
+	 */
+	public QVertexIconTransformer(boolean rasterize) {
+		this.rasterize = rasterize;
+	}
+
+	public QVertexIconTransformer() {
+		this(false);
+	}
+
 	public Icon transform(Vertex input) {
 		if (input.isBoundaryVertex())
 			return null;
-		else
-			return input.getVertexType().getVisualizationData().getIcon();
+		VertexVisualizationData data = input.getVertexType().getVisualizationData();
+		return rasterize ? data.getRasterIcon() : data.getIcon();
 	}
 	
 }
@@ -5,6 +5,8 @@
 
 package quanto.gui.graphhelpers;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.commons.collections15.Transformer;
 
 import quanto.core.data.Vertex;
@@ -16,15 +18,31 @@ import quanto.gui.TexConstants;
  * @author alemer
  */
 public class QVertexLabelTransformer implements Transformer<Vertex, String> {
+	// labels are asked for on every repaint, and a graph usually
+	// only has a few distinct angles
+	private final Map<String, String> translations = new HashMap<String, String>();
+
 	public QVertexLabelTransformer() {
 	}
+
+	private String translate(String value) {
+		String text = translations.get(value);
+		if (text == null) {
+			if (translations.size() > 1000) {
+				translations.clear();
+			}
+			text = TexConstants.translate(value);
+			translations.put(value, text);
+		}
+		return text;
+	}
 	
 	public String transform(Vertex v) {
 		if (v.isBoundaryVertex()) {
 			return v.getCoreName();
 		} else if (v.getVertexType().hasData()) {
 			if (v.getVertexType().getDataType() == VertexType.DataType.MathExpression)
-				return TexConstants.translate(v.getData().getStringValue());
+				return translate(v.getData().getStringValue());
 			else
 				return v.getData().getStringValue();
 		} else {
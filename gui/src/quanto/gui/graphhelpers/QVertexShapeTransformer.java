@@ -7,6 +7,8 @@ package quanto.gui.graphhelpers;
 
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.Map;
 import javax.swing.JLabel;
 import org.apache.commons.collections15.Transformer;
 
@@ -17,6 +19,9 @@ import quanto.core.data.Vertex;
  * @author alemer
  */
 public class QVertexShapeTransformer implements Transformer<Vertex, Shape> {
+	// boundary shapes depend only on the name, and returning the same
+	// shape each time lets the !-box shapes be cached
+	private final Map<String, Shape> boundaryShapes = new HashMap<String, Shape>();
 
 	public QVertexShapeTransformer() {
 	}
@@ -24,9 +29,17 @@ public class QVertexShapeTransformer implements Transformer<Vertex, Shape> {
 	public Shape transform(Vertex v) {
 		if (v.isBoundaryVertex()) {
 			String text = v.getCoreName();
-			double width = new JLabel(text).getPreferredSize().getWidth();
-			width = Math.max(width, 14);
-			return new Rectangle2D.Double(-(width / 2), -7, width, 14);
+			Shape shape = boundaryShapes.get(text);
+			if (shape == null) {
+				if (boundaryShapes.size() > 1000) {
+					boundaryShapes.clear();
+				}
+				double width = new JLabel(text).getPreferredSize().getWidth();
+				width = Math.max(width, 14);
+				shape = new Rectangle2D.Double(-(width / 2), -7, width, 14);
+				boundaryShapes.put(text, shape);
+			}
+			return shape;
 		} else {
 			return v.getVertexType().getVisualizationData().getShape();
 		}